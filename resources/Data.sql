@@ -1,11 +1,14 @@
-/* Setting up PROD DB */
+/* Setting up PROD DB, the database of garage 1.
+   Each other garage gets a database of its own with the same tables, named garage_<id>:
+   create database garage_2; use garage_2; then the statements below from "create table parking" */
 create database prod;
 use prod;
 
 create table parking(
 PARKING_NUMBER int PRIMARY KEY,
 AVAILABLE bool NOT NULL,
-TYPE varchar(10) NOT NULL
+TYPE varchar(10) NOT NULL,
+LEVEL int NOT NULL DEFAULT 0
 );
 
 create table ticket(
@@ -15,9 +18,50 @@ create table ticket(
  PRICE double,
  IN_TIME DATETIME NOT NULL,
  OUT_TIME DATETIME,
+ GARAGE_ID int NOT NULL DEFAULT 1,
  FOREIGN KEY (PARKING_NUMBER)
  REFERENCES parking(PARKING_NUMBER));
 
+create index IDX_TICKET_VEHICLE on ticket(VEHICLE_REG_NUMBER, OUT_TIME, IN_TIME);
+/* reports and revenue read the tickets by exit time */
+create index IDX_TICKET_OUT_TIME on ticket(OUT_TIME);
+
+/* closed tickets older than the retention of the ticket table, keyed by in-time month so each month is stored together */
+create table ticket_archive(
+ IN_MONTH int NOT NULL,
+ ID int NOT NULL,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL,
+ GARAGE_ID int NOT NULL DEFAULT 1,
+ PRIMARY KEY (IN_MONTH, ID));
+
+create index IDX_ARCHIVE_VEHICLE on ticket_archive(VEHICLE_REG_NUMBER, IN_TIME);
+create index IDX_ARCHIVE_OUT_TIME on ticket_archive(OUT_TIME);
+
+/* closed tickets added up per hour of exit and parking type, stays counted under 30 min, 1, 2, 4, 8, 24 hours and over */
+create table ticket_hourly_summary(
+ HOUR_START DATETIME NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ TICKET_COUNT bigint NOT NULL,
+ REVENUE_CENTS bigint NOT NULL,
+ STAY_MILLIS bigint NOT NULL,
+ STAYS_30M bigint NOT NULL,
+ STAYS_1H bigint NOT NULL,
+ STAYS_2H bigint NOT NULL,
+ STAYS_4H bigint NOT NULL,
+ STAYS_8H bigint NOT NULL,
+ STAYS_24H bigint NOT NULL,
+ STAYS_OVER_24H bigint NOT NULL,
+ PRIMARY KEY (HOUR_START, TYPE));
+
+/* the summary holds every ticket closed before CLOSED_BEFORE, the later ones are added up again on restart */
+create table ticket_summary_checkpoint(
+ ID int PRIMARY KEY,
+ CLOSED_BEFORE DATETIME NOT NULL);
+
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(2,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(3,true,'CAR');
@@ -32,7 +76,8 @@ use test;
 create table parking(
 PARKING_NUMBER int PRIMARY KEY,
 AVAILABLE bool NOT NULL,
-TYPE varchar(10) NOT NULL
+TYPE varchar(10) NOT NULL,
+LEVEL int NOT NULL DEFAULT 0
 );
 
 create table ticket(
@@ -42,9 +87,50 @@ create table ticket(
  PRICE double,
  IN_TIME DATETIME NOT NULL,
  OUT_TIME DATETIME,
+ GARAGE_ID int NOT NULL DEFAULT 1,
  FOREIGN KEY (PARKING_NUMBER)
  REFERENCES parking(PARKING_NUMBER));
 
+create index IDX_TICKET_VEHICLE on ticket(VEHICLE_REG_NUMBER, OUT_TIME, IN_TIME);
+/* reports and revenue read the tickets by exit time */
+create index IDX_TICKET_OUT_TIME on ticket(OUT_TIME);
+
+/* closed tickets older than the retention of the ticket table, keyed by in-time month so each month is stored together */
+create table ticket_archive(
+ IN_MONTH int NOT NULL,
+ ID int NOT NULL,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL,
+ GARAGE_ID int NOT NULL DEFAULT 1,
+ PRIMARY KEY (IN_MONTH, ID));
+
+create index IDX_ARCHIVE_VEHICLE on ticket_archive(VEHICLE_REG_NUMBER, IN_TIME);
+create index IDX_ARCHIVE_OUT_TIME on ticket_archive(OUT_TIME);
+
+/* closed tickets added up per hour of exit and parking type, stays counted under 30 min, 1, 2, 4, 8, 24 hours and over */
+create table ticket_hourly_summary(
+ HOUR_START DATETIME NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ TICKET_COUNT bigint NOT NULL,
+ REVENUE_CENTS bigint NOT NULL,
+ STAY_MILLIS bigint NOT NULL,
+ STAYS_30M bigint NOT NULL,
+ STAYS_1H bigint NOT NULL,
+ STAYS_2H bigint NOT NULL,
+ STAYS_4H bigint NOT NULL,
+ STAYS_8H bigint NOT NULL,
+ STAYS_24H bigint NOT NULL,
+ STAYS_OVER_24H bigint NOT NULL,
+ PRIMARY KEY (HOUR_START, TYPE));
+
+/* the summary holds every ticket closed before CLOSED_BEFORE, the later ones are added up again on restart */
+create table ticket_summary_checkpoint(
+ ID int PRIMARY KEY,
+ CLOSED_BEFORE DATETIME NOT NULL);
+
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(2,true,'CAR');
 insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(3,true,'CAR');
@@ -1,13 +1,140 @@
 package com.parkit.parkingsystem;
 
+import com.parkit.parkingsystem.config.ReportDataBaseConfig;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.GarageRouter;
+import com.parkit.parkingsystem.service.GateEventReplay;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.HourlyTicketAggregates;
 import com.parkit.parkingsystem.service.InteractiveShell;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.service.TariffEngine;
+import com.parkit.parkingsystem.service.TicketArchiver;
+import com.parkit.parkingsystem.service.TicketReportService;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
 public class App {
     private static final Logger logger = LogManager.getLogger("App");
-    public static void main(String args[]){
+
+    private static final int DEFAULT_SERVER_PORT = 8080;
+    private static final int DEFAULT_SERVER_WORKERS = 12;
+    private static final int DEFAULT_REPLAY_LANES = 8;
+    private static final long PARKING_RECONCILIATION_PERIOD_MILLIS = 60 * 1000;
+    private static final long TARIFF_RELOAD_PERIOD_MILLIS = 10 * 1000;
+    private static final long METRICS_REPORT_PERIOD_MILLIS = 60 * 1000;
+    private static final long GARAGE_AGGREGATE_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+    private static final long ARCHIVE_PERIOD_MILLIS = 60 * 60 * 1000;
+    private static final int REPORT_FETCH_SIZE = 1000;
+    private static final int REPORT_PARALLELISM = 4;
+    private static final long AGGREGATES_FLUSH_PERIOD_MILLIS = 5 * 60 * 1000;
+
+    // "server [port] [workers]" serves the gates over HTTP, "replay <file> [lanes]" replays a file of gate events,
+    // "report <from> <to>" reports on the days from the first yyyy-MM-dd date to the second, no argument starts the console
+    public static void main(String args[]) throws Exception {
         logger.info("Initializing Parking System");
-        InteractiveShell.loadInterface();
+        if (args.length > 0 && "server".equals(args[0])) {
+            int port = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SERVER_PORT;
+            int workers = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SERVER_WORKERS;
+            loadServer(port, workers);
+        } else if (args.length > 1 && "replay".equals(args[0])) {
+            int lanes = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_REPLAY_LANES;
+            replay(new File(args[1]), lanes);
+        } else if (args.length > 2 && "report".equals(args[0])) {
+            report(args[1], args[2]);
+        } else {
+            InteractiveShell.loadInterface();
+        }
+    }
+
+    private static void replay(File eventFile, int lanes) throws Exception {
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        TicketDAO ticketDAO = new TicketDAO();
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.fareCalculatorService = new FareCalculatorService(TariffEngine.fromSystemProperty(TARIFF_RELOAD_PERIOD_MILLIS));
+        parkingService.spotAllocationStrategy = SpotAllocationStrategy.fromSystemProperty(ticketDAO);
+        // replayed exits are usually older than the checkpoint of the hourly summary, which the gate server
+        // would not read again from the tickets
+        HourlyTicketAggregates hourlyTicketAggregates = new HourlyTicketAggregates();
+        parkingService.hourlyTicketAggregates = hourlyTicketAggregates;
+        GateEventReplay.ReplayResult result = new GateEventReplay(parkingService, lanes).replay(eventFile);
+        hourlyTicketAggregates.flushHoursBeforeCheckpoint();
+        System.out.println(result);
+        System.out.println(Metrics.dump());
+    }
+
+    // the hour in progress is not written, it is added up again from the tickets on the next start
+    private static void flushAggregates(GarageRouter.Garage garage) {
+        try {
+            garage.getHourlyTicketAggregates().flush();
+        } catch (Exception e) {
+            logger.error("Unable to flush the hourly aggregates of garage " + garage.getId(), e);
+        }
+    }
+
+    private static void report(String from, String to) throws Exception {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+        TicketReportService ticketReportService = new TicketReportService(REPORT_FETCH_SIZE, REPORT_PARALLELISM);
+        ticketReportService.dataBaseConfig = new ReportDataBaseConfig();
+        System.out.println(ticketReportService.report(dayFormat.parse(from), dayFormat.parse(to)));
+    }
+
+    // every garage of -Dparking.garages, each on its own database
+    private static void loadServer(int port, int workers) throws Exception {
+        GarageRouter garageRouter = GarageRouter.fromSystemProperty(GARAGE_AGGREGATE_TIMEOUT_MILLIS);
+        String archiveDays = System.getProperty(TicketArchiver.ARCHIVE_DAYS_PROPERTY);
+        List<TicketArchiver> ticketArchivers = new ArrayList<>();
+        for (GarageRouter.Garage garage : garageRouter.getGarages()) {
+            garage.getTicketDAO().enableJournalFromSystemProperty();
+            garage.getParkingSpotDAO().setTicketJournal(garage.getTicketDAO().getJournal());
+            garage.getParkingSpotDAO().startReconciliation(PARKING_RECONCILIATION_PERIOD_MILLIS);
+            garage.getTicketDAO().enableWriteBehindFromSystemProperty();
+            garage.getParkingService().fareCalculatorService = new FareCalculatorService(
+                    TariffEngine.fromSystemProperty(garage.getId(), TARIFF_RELOAD_PERIOD_MILLIS));
+            garage.getParkingService().spotAllocationStrategy = SpotAllocationStrategy.fromSystemProperty(garage.getTicketDAO());
+            // before the gates open, so no exit is added up twice
+            garage.getHourlyTicketAggregates().rebuild();
+            garage.getHourlyTicketAggregates().startFlushing(AGGREGATES_FLUSH_PERIOD_MILLIS);
+            if (archiveDays != null) {
+                TicketArchiver ticketArchiver = new TicketArchiver(ARCHIVE_BATCH_SIZE);
+                ticketArchiver.dataBaseConfig = garage.getDataBaseConfig();
+                ticketArchiver.startArchiving(Integer.parseInt(archiveDays.trim()), ARCHIVE_PERIOD_MILLIS);
+                ticketArchivers.add(ticketArchiver);
+            }
+        }
+        GateServer gateServer = new GateServer(garageRouter, port, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                gateServer.stop(5);
+                for (TicketArchiver ticketArchiver : ticketArchivers) {
+                    ticketArchiver.stopArchiving();
+                }
+                for (GarageRouter.Garage garage : garageRouter.getGarages()) {
+                    garage.getHourlyTicketAggregates().stopFlushing();
+                    flushAggregates(garage);
+                    garage.getParkingSpotDAO().setTicketJournal(null);
+                    garage.getTicketDAO().disableJournal();
+                    garage.getTicketDAO().disableWriteBehind();
+                }
+                garageRouter.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                logger.error("Unable to close the ticket journal", e);
+            }
+        }, "gate-server-shutdown"));
+        Metrics.startReporting(METRICS_REPORT_PERIOD_MILLIS);
+        gateServer.start();
     }
 }
@@ -0,0 +1,407 @@
+package com.parkit.parkingsystem.config;
+
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConnectionPool implements ConnectionPoolMBean {
+
+    private static final Logger logger = LogManager.getLogger("ConnectionPool");
+
+    // time spent waiting for a connection, all pools together
+    private static final LatencyHistogram acquireLatency = Metrics.histogram("ConnectionPool.acquire");
+
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    // most recently released connection first, so the warmest one is borrowed again
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong peakWaitNanos = new AtomicLong();
+    private final LongAdder statementHitCount = new LongAdder();
+    private final LongAdder statementMissCount = new LongAdder();
+
+    public ConnectionPool(ConnectionFactory connectionFactory, int maxSize, long maxWaitMillis,
+                          long idleTimeoutMillis, long validationIntervalMillis, int validationTimeoutSeconds) {
+        this(connectionFactory, maxSize, maxWaitMillis, idleTimeoutMillis, validationIntervalMillis, validationTimeoutSeconds, 0);
+    }
+
+    // Up to statementCacheSize prepared statements are kept open per connection: closing one returns it to its
+    // connection, and preparing the same SQL again on that connection reuses it without a new parse
+    public ConnectionPool(ConnectionFactory connectionFactory, int maxSize, long maxWaitMillis,
+                          long idleTimeoutMillis, long validationIntervalMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The pool size must be positive");
+        }
+        this.connectionFactory = connectionFactory;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a pooled connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                if (isValid(pooled)) {
+                    break;
+                }
+                discard(pooled);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(connectionFactory.create());
+                createdCount.increment();
+                logger.debug("Create DB connection");
+            }
+            activeCount.incrementAndGet();
+            borrowCount.increment();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        activeCount.decrementAndGet();
+        try {
+            if (pooled.physical.isClosed()) {
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idleConnections.offerFirst(pooled);
+        } catch (SQLException e) {
+            logger.error("Discarding broken pooled connection", e);
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : idleConnections) {
+            // remove() fails if a borrower polled the connection in the meantime
+            if (now - pooled.lastUsed > idleTimeoutMillis && idleConnections.remove(pooled)) {
+                discard(pooled);
+                evictedCount.increment();
+            }
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            logger.error("Error while closing pooled connection", e);
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        acquireLatency.record(waitNanos);
+        totalWaitNanos.add(waitNanos);
+        long peak;
+        while (waitNanos > (peak = peakWaitNanos.get())) {
+            if (peakWaitNanos.compareAndSet(peak, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    public void close() {
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    @Override
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    @Override
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    @Override
+    public long getPeakWaitNanos() {
+        return peakWaitNanos.get();
+    }
+
+    @Override
+    public long getStatementHitCount() {
+        return statementHitCount.sum();
+    }
+
+    @Override
+    public long getStatementMissCount() {
+        return statementMissCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        long borrows = getBorrowCount();
+        return "ConnectionPool[active=" + getActiveCount() + ", idle=" + getIdleCount() + ", max=" + maxSize
+                + ", borrows=" + borrows + ", created=" + getCreatedCount() + ", evicted=" + getEvictedCount()
+                + ", timeouts=" + getTimeoutCount()
+                + ", avgWaitMicros=" + (borrows == 0 ? 0 : getTotalWaitNanos() / borrows / 1000)
+                + ", peakWaitMicros=" + getPeakWaitNanos() / 1000
+                + ", statementHits=" + getStatementHitCount() + ", statementMisses=" + getStatementMissCount() + "]";
+    }
+
+    private class PooledConnection {
+        private final Connection physical;
+        private volatile long lastUsed = System.currentTimeMillis();
+        // idle prepared statements by SQL and options, least recently returned first. Only used by the
+        // thread holding the connection, a statement in use is out of the cache until it is closed.
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>();
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private PreparedStatement prepareStatement(Lease lease, Connection leaseProxy, Method method, Object[] args) throws Throwable {
+            String key = (args.length == 1) ? (String) args[0] : args[0] + Arrays.toString(Arrays.copyOfRange(args, 1, args.length));
+            PreparedStatement statement = statements.remove(key);
+            if (statement != null) {
+                statementHitCount.increment();
+            } else {
+                statementMissCount.increment();
+                statement = (PreparedStatement) invokeOn(physical, method, args);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new StatementLease(lease, leaseProxy, key, statement));
+        }
+
+        private void returnStatement(String key, PreparedStatement statement) throws SQLException {
+            statement.clearParameters();
+            statement.clearBatch();
+            PreparedStatement replaced = statements.put(key, statement);
+            if (replaced != null) {
+                replaced.close();
+            }
+            if (statements.size() > statementCacheSize) {
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                eldest.next().close();
+                eldest.remove();
+            }
+        }
+
+        // every lease gets its own proxy, so a caller holding on to a returned connection cannot use it again
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": {
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                }
+                case "isClosed": {
+                    return returned || pooled.physical.isClosed();
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString": {
+                    return "PooledConnection[" + pooled.physical + "]";
+                }
+                default: {
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    if (statementCacheSize > 0 && "prepareStatement".equals(method.getName())) {
+                        return pooled.prepareStatement(this, (Connection) proxy, method, args);
+                    }
+                    return invokeOn(pooled.physical, method, args);
+                }
+            }
+        }
+    }
+
+    private class StatementLease implements InvocationHandler {
+        private final Lease lease;
+        private final Connection leaseProxy;
+        private final String key;
+        private final PreparedStatement physical;
+        private boolean returned;
+
+        private StatementLease(Lease lease, Connection leaseProxy, String key, PreparedStatement physical) {
+            this.lease = lease;
+            this.leaseProxy = leaseProxy;
+            this.key = key;
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": {
+                    if (!returned) {
+                        returned = true;
+                        if (lease.returned) {
+                            // the connection may already be used by another thread, its cache is not ours anymore
+                            physical.close();
+                        } else {
+                            lease.pooled.returnStatement(key, physical);
+                        }
+                    }
+                    return null;
+                }
+                case "isClosed": {
+                    return returned || physical.isClosed();
+                }
+                case "getConnection": {
+                    return leaseProxy;
+                }
+                case "equals": {
+                    return proxy == args[0];
+                }
+                case "hashCode": {
+                    return System.identityHashCode(proxy);
+                }
+                default: {
+                    if (returned) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    return invokeOn(physical, method, args);
+                }
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.parkit.parkingsystem.config;
+
+// Attributes of a connection pool shown over JMX
+public interface ConnectionPoolMBean {
+
+    int getMaxSize();
+
+    int getActiveCount();
+
+    int getIdleCount();
+
+    long getBorrowCount();
+
+    long getTimeoutCount();
+
+    long getCreatedCount();
+
+    long getEvictedCount();
+
+    long getTotalWaitNanos();
+
+    long getPeakWaitNanos();
+
+    long getStatementHitCount();
+
+    long getStatementMissCount();
+}
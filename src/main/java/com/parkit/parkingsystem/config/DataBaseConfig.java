@@ -1,26 +1,200 @@
 package com.parkit.parkingsystem.config;
 
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DataBaseConfig {
 
     private static final Logger logger = LogManager.getLogger("DataBaseConfig");
 
+    // "embedded" keeps the data in an in-process H2 database, stored under the path property, instead of MySQL
+    public static final String STORAGE_PROPERTY = "parking.storage";
+    public static final String STORAGE_PATH_PROPERTY = "parking.storage.path";
+    protected static final String DEFAULT_STORAGE_PATH = "./data/parking";
+    protected static final String EMBEDDED_SCHEMA = "classpath:/embedded-schema.sql";
+
+    // garage of a single-garage installation, whose data is in the default database
+    public static final int DEFAULT_GARAGE_ID = 1;
+
+    // one connection per lane of the gate server, plus room for the background jobs
+    private static final int MAX_POOL_SIZE = 16;
+    private static final long MAX_WAIT_MILLIS = 5000;
+    private static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    // enough for every statement of DBConstants, so the gates never parse the same SQL twice on a connection
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    // one pool per database url, shared by every DAO pointing at that database
+    private static final ConcurrentMap<String, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+
+    // unit of work of the current thread. It lives outside the instances so every DAO taking part in a
+    // workflow joins it, whatever DataBaseConfig it was given.
+    private static final ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>();
+
+    private static class Transaction {
+        // one connection per pool, bound lazily on the first getConnection of the unit of work
+        private final Map<ConnectionPool, Connection> connections = new IdentityHashMap<>();
+        private final List<Runnable> rollbackActions = new ArrayList<>();
+    }
+
+    // the garage whose spots and tickets this database holds
+    public int getGarageId() {
+        return DEFAULT_GARAGE_ID;
+    }
+
+    protected boolean isEmbedded() {
+        return "embedded".equalsIgnoreCase(System.getProperty(STORAGE_PROPERTY));
+    }
+
+    protected String getDriverClassName() {
+        return isEmbedded() ? "org.h2.Driver" : "com.mysql.cj.jdbc.Driver";
+    }
+
+    // useCursorFetch makes the driver honor the fetch size of large reads instead of loading the whole result,
+    // useServerPrepStmts has the server parse each statement once, for as long as the pool keeps it prepared
+    protected String getUrl() {
+        if (isEmbedded()) {
+            return "jdbc:h2:file:" + System.getProperty(STORAGE_PATH_PROPERTY, DEFAULT_STORAGE_PATH) + ";MODE=MySQL";
+        }
+        return "jdbc:mysql://localhost:3306/prod?rewriteBatchedStatements=true&useCursorFetch=true&useServerPrepStmts=true";
+    }
+
+    protected String getUser() {
+        return isEmbedded() ? "sa" : "employeeSpring";
+    }
+
+    protected String getPassword() {
+        return isEmbedded() ? "" : "employeeSpring";
+    }
+
+    public ConnectionPool getConnectionPool() throws ClassNotFoundException {
+        ConnectionPool connectionPool = connectionPools.get(getUrl());
+        if (connectionPool == null) {
+            Class.forName(getDriverClassName());
+            connectionPool = connectionPools.computeIfAbsent(getUrl(), url -> {
+                ConnectionPool newConnectionPool = new ConnectionPool(
+                        () -> DriverManager.getConnection(url, getUser(), getPassword()),
+                        MAX_POOL_SIZE, MAX_WAIT_MILLIS, IDLE_TIMEOUT_MILLIS,
+                        VALIDATION_INTERVAL_MILLIS, VALIDATION_TIMEOUT_SECONDS, STATEMENT_CACHE_SIZE);
+                if (isEmbedded()) {
+                    createEmbeddedSchema(newConnectionPool);
+                }
+                Metrics.registerMBean("ConnectionPool", url, newConnectionPool);
+                return newConnectionPool;
+            });
+        }
+        return connectionPool;
+    }
+
+    // there is no server to set the embedded database up beforehand, it gets its tables when first opened
+    private static void createEmbeddedSchema(ConnectionPool connectionPool) {
+        try (Connection con = connectionPool.borrow(); Statement statement = con.createStatement()) {
+            statement.execute("runscript from '" + EMBEDDED_SCHEMA + "'");
+        } catch (SQLException e) {
+            connectionPool.close();
+            throw new IllegalStateException("Unable to create the embedded database schema", e);
+        }
+    }
+
     public Connection getConnection() throws ClassNotFoundException, SQLException {
-        logger.info("Create DB connection");
-        Class.forName("com.mysql.cj.jdbc.Driver");
-        return DriverManager.getConnection(
-                "jdbc:mysql://localhost:3306/prod","employeeSpring","employeeSpring");
+        ConnectionPool connectionPool = getConnectionPool();
+        Transaction transaction = currentTransaction.get();
+        if (transaction == null) {
+            return connectionPool.borrow();
+        }
+        Connection con = transaction.connections.get(connectionPool);
+        if (con == null) {
+            con = connectionPool.borrow();
+            try {
+                con.setAutoCommit(false);
+            } catch (SQLException e) {
+                con.close();
+                throw e;
+            }
+            transaction.connections.put(connectionPool, con);
+        }
+        return con;
+    }
+
+    // Starts a unit of work on the current thread: until it is committed or rolled back, every DAO call made
+    // from this thread shares one connection and one transaction.
+    public void beginTransaction() {
+        if (currentTransaction.get() != null) {
+            throw new IllegalStateException("A transaction is already in progress on this thread");
+        }
+        currentTransaction.set(new Transaction());
+    }
+
+    public boolean isTransactionActive() {
+        return currentTransaction.get() != null;
+    }
+
+    // Registers an in-memory change to undo if the current unit of work is rolled back. No-op outside a transaction.
+    public void registerRollbackAction(Runnable rollbackAction) {
+        Transaction transaction = currentTransaction.get();
+        if (transaction != null) {
+            transaction.rollbackActions.add(rollbackAction);
+        }
+    }
+
+    public void commitTransaction() throws SQLException {
+        Transaction transaction = currentTransaction.get();
+        if (transaction == null) {
+            throw new IllegalStateException("No transaction in progress on this thread");
+        }
+        for (Connection con : transaction.connections.values()) {
+            con.commit();
+        }
+        endTransaction(transaction);
+    }
+
+    // Rolls back the current unit of work, if any. Safe to call from a finally block after a commit.
+    public void rollbackTransaction() {
+        Transaction transaction = currentTransaction.get();
+        if (transaction == null) {
+            return;
+        }
+        for (Connection con : transaction.connections.values()) {
+            try {
+                con.rollback();
+            } catch (SQLException e) {
+                logger.error("Error while rolling back transaction",e);
+            }
+        }
+        for (Runnable rollbackAction : transaction.rollbackActions) {
+            rollbackAction.run();
+        }
+        endTransaction(transaction);
+    }
+
+    private void endTransaction(Transaction transaction) {
+        currentTransaction.remove();
+        for (Connection con : transaction.connections.values()) {
+            closeConnection(con);
+        }
     }
 
     public void closeConnection(Connection con){
+        Transaction transaction = currentTransaction.get();
+        if (transaction != null && transaction.connections.containsValue(con)) {
+            // released when the unit of work ends
+            return;
+        }
         if(con!=null){
             try {
+                // pooled connections go back to the pool instead of being physically closed
                 con.close();
-                logger.info("Closing DB connection");
+                logger.debug("Returning DB connection to pool");
             } catch (SQLException e) {
                 logger.error("Error while closing connection",e);
             }
@@ -31,7 +205,7 @@ public class DataBaseConfig {
         if(ps!=null){
             try {
                 ps.close();
-                logger.info("Closing Prepared Statement");
+                logger.debug("Closing Prepared Statement");
             } catch (SQLException e) {
                 logger.error("Error while closing prepared statement",e);
             }
@@ -42,7 +216,7 @@ public class DataBaseConfig {
         if(rs!=null){
             try {
                 rs.close();
-                logger.info("Closing Result Set");
+                logger.debug("Closing Result Set");
             } catch (SQLException e) {
                 logger.error("Error while closing result set",e);
             }
@@ -0,0 +1,32 @@
+package com.parkit.parkingsystem.config;
+
+// Database of one garage among several: garage_<id> next to the default database, or the url given with
+// -Dparking.garage.<id>.url to move a large garage to a server of its own. Pools are per url, so each garage
+// also gets its own connection pool and cached statements.
+public class GarageDataBaseConfig extends DataBaseConfig {
+
+    public static final String GARAGE_URL_PROPERTY_FORMAT = "parking.garage.%d.url";
+
+    private final int garageId;
+
+    public GarageDataBaseConfig(int garageId) {
+        this.garageId = garageId;
+    }
+
+    @Override
+    public int getGarageId() {
+        return garageId;
+    }
+
+    @Override
+    protected String getUrl() {
+        String url = System.getProperty(String.format(GARAGE_URL_PROPERTY_FORMAT, garageId));
+        if (url != null) {
+            return url;
+        }
+        if (isEmbedded()) {
+            return "jdbc:h2:file:" + System.getProperty(STORAGE_PATH_PROPERTY, DEFAULT_STORAGE_PATH) + "-garage-" + garageId + ";MODE=MySQL";
+        }
+        return "jdbc:mysql://localhost:3306/garage_" + garageId + "?rewriteBatchedStatements=true&useCursorFetch=true&useServerPrepStmts=true";
+    }
+}
@@ -0,0 +1,39 @@
+package com.parkit.parkingsystem.config;
+
+// Database the reports read from: the url given with -Dparking.report.url, a read replica or an H2 file loaded
+// from an export, so long reports do not compete with the gates. The default database otherwise.
+public class ReportDataBaseConfig extends DataBaseConfig {
+
+    public static final String REPORT_URL_PROPERTY = "parking.report.url";
+    public static final String REPORT_USER_PROPERTY = "parking.report.user";
+    public static final String REPORT_PASSWORD_PROPERTY = "parking.report.password";
+
+    private String getReportUrl() {
+        return System.getProperty(REPORT_URL_PROPERTY);
+    }
+
+    @Override
+    protected String getDriverClassName() {
+        String url = getReportUrl();
+        if (url == null) {
+            return super.getDriverClassName();
+        }
+        return url.startsWith("jdbc:h2:") ? "org.h2.Driver" : "com.mysql.cj.jdbc.Driver";
+    }
+
+    @Override
+    protected String getUrl() {
+        String url = getReportUrl();
+        return (url != null) ? url : super.getUrl();
+    }
+
+    @Override
+    protected String getUser() {
+        return System.getProperty(REPORT_USER_PROPERTY, super.getUser());
+    }
+
+    @Override
+    protected String getPassword() {
+        return System.getProperty(REPORT_PASSWORD_PROPERTY, super.getPassword());
+    }
+}
@@ -2,14 +2,74 @@ package com.parkit.parkingsystem.constants;
 
 public class DBConstants {
 
-    public static final String GET_NEXT_PARKING_SPOT = "select min(PARKING_NUMBER) from parking where AVAILABLE = true and TYPE = ?";
+    public static final String GET_PARKING_SPOTS = "select PARKING_NUMBER, AVAILABLE, TYPE, LEVEL from parking";
     public static final String UPDATE_PARKING_SPOT = "update parking set available = ? where PARKING_NUMBER = ?";
+    // only succeeds for the first gate taking the spot, a concurrent claim updates no row
+    public static final String CLAIM_PARKING_SPOT = "update parking set available = false where PARKING_NUMBER = ? and AVAILABLE = true";
 
-    public static final String SAVE_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)";
+    // each garage has its own database, the garage is still recorded so tickets can be exported and reported together
+    public static final String SAVE_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME, GARAGE_ID) values(?,?,?,?,?,?)";
     public static final String UPDATE_TICKET = "update ticket set PRICE=?, OUT_TIME=? where ID=?";
+    // a vehicle has at most one open ticket, used when the ticket id is not known yet
+    public static final String UPDATE_OPEN_TICKET = "update ticket set PRICE=?, OUT_TIME=? where VEHICLE_REG_NUMBER=? and OUT_TIME is null";
+    // replayed from the ticket journal, possibly twice after a crash: a ticket is identified by its vehicle and in-time
+    public static final String SAVE_JOURNALED_TICKET = "insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME, GARAGE_ID) select ?,?,?,?,?,? from dual"
+            + " where not exists(select 1 from ticket where VEHICLE_REG_NUMBER=? and IN_TIME > ? and IN_TIME < ?)";
+    public static final String UPDATE_JOURNALED_TICKET = "update ticket set PRICE=?, OUT_TIME=? where VEHICLE_REG_NUMBER=? and IN_TIME > ? and IN_TIME < ?";
+    // the writes of a unit of work rolled back after it journaled them
+    public static final String DELETE_JOURNALED_TICKET = "delete from ticket where VEHICLE_REG_NUMBER=? and IN_TIME > ? and IN_TIME < ?";
+    public static final String REOPEN_JOURNALED_TICKET = "update ticket set PRICE=0, OUT_TIME=null where VEHICLE_REG_NUMBER=? and IN_TIME > ? and IN_TIME < ?";
     // because we try to get the ticket through the VEHICLE_REG_NUMBER instead of the ID,
     // we need to add an "order by t.IN_TIME DESC, t.OUT_TIME limit 1"
     // this will allow us to get the right item for our tests
-    public static final String GET_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME DESC, t.OUT_TIME limit 1";
-    public static final String GET_NB_TICKET = "select count(*) from ticket where VEHICLE_REG_NUMBER=? and OUT_TIME is not null";
-}
\ No newline at end of file
+    public static final String GET_TICKET = "select t.PARKING_NUMBER, t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE, t.GARAGE_ID, p.LEVEL from ticket t,parking p where p.parking_number = t.parking_number and t.VEHICLE_REG_NUMBER=? order by t.IN_TIME DESC, t.OUT_TIME limit 1";
+    // closed tickets with what their fare depends on, the discount going to vehicles with an earlier completed visit
+    public static final String GET_CLOSED_TICKETS_FOR_REPRICING = "select t.ID, t.PRICE, t.IN_TIME, t.OUT_TIME, p.TYPE,"
+            + " exists(select 1 from ticket e where e.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and e.OUT_TIME < t.OUT_TIME)"
+            + " or exists(select 1 from ticket_archive a where a.VEHICLE_REG_NUMBER = t.VEHICLE_REG_NUMBER and a.OUT_TIME < t.OUT_TIME)"
+            + " from ticket t, parking p where p.PARKING_NUMBER = t.PARKING_NUMBER and t.OUT_TIME >= ? and t.OUT_TIME < ?";
+    public static final String UPDATE_TICKET_PRICE = "update ticket set PRICE=? where ID=?";
+    // completed visits are in the ticket table or, once old enough, in the archive
+    public static final String GET_NB_TICKET = "select (select count(*) from ticket where VEHICLE_REG_NUMBER=? and OUT_TIME is not null)"
+            + " + (select count(*) from ticket_archive where VEHICLE_REG_NUMBER=?)";
+
+    // last visit of a vehicle whose tickets were all archived
+    public static final String GET_ARCHIVED_TICKET = "select a.PARKING_NUMBER, a.ID, a.PRICE, a.IN_TIME, a.OUT_TIME, p.TYPE, a.GARAGE_ID, p.LEVEL from ticket_archive a,parking p"
+            + " where p.parking_number = a.parking_number and a.VEHICLE_REG_NUMBER=? order by a.IN_TIME DESC limit 1";
+    // closed tickets move to the archive by ranges of ids, a range being copied then deleted in one transaction
+    public static final String GET_TICKETS_TO_ARCHIVE = "select ID from ticket where OUT_TIME < ? order by ID limit ?";
+    public static final String ARCHIVE_TICKETS = "insert into ticket_archive(IN_MONTH, ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME, GARAGE_ID)"
+            + " select year(IN_TIME) * 100 + month(IN_TIME), ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME, GARAGE_ID"
+            + " from ticket where ID >= ? and ID <= ? and OUT_TIME < ?";
+    public static final String DELETE_ARCHIVED_TICKETS = "delete from ticket where ID >= ? and ID <= ? and OUT_TIME < ?";
+
+    // Reports read the hot table and the archive alike, with the type of the spot, by ranges of exit time
+    public static final String GET_CLOSED_TICKETS_FOR_REPORT = "select p.TYPE, t.PRICE, t.IN_TIME, t.OUT_TIME from ticket t, parking p"
+            + " where p.PARKING_NUMBER = t.PARKING_NUMBER and t.OUT_TIME >= ? and t.OUT_TIME < ?"
+            + " union all select p.TYPE, a.PRICE, a.IN_TIME, a.OUT_TIME from ticket_archive a, parking p"
+            + " where p.PARKING_NUMBER = a.PARKING_NUMBER and a.OUT_TIME >= ? and a.OUT_TIME < ?";
+    // vehicles still parked at the end of a report, they count in its occupancy
+    public static final String GET_PARKED_TICKETS_FOR_REPORT = "select p.TYPE, t.IN_TIME from ticket t, parking p"
+            + " where p.PARKING_NUMBER = t.PARKING_NUMBER and t.IN_TIME < ? and (t.OUT_TIME is null or t.OUT_TIME >= ?)"
+            + " union all select p.TYPE, a.IN_TIME from ticket_archive a, parking p"
+            + " where p.PARKING_NUMBER = a.PARKING_NUMBER and a.IN_TIME < ? and a.OUT_TIME >= ?";
+
+    // hourly aggregates of the closed tickets, added to at each flush then marked flushed up to a checkpoint
+    public static final String ADD_TO_HOURLY_SUMMARY = "update ticket_hourly_summary set TICKET_COUNT = TICKET_COUNT + ?,"
+            + " REVENUE_CENTS = REVENUE_CENTS + ?, STAY_MILLIS = STAY_MILLIS + ?, STAYS_30M = STAYS_30M + ?, STAYS_1H = STAYS_1H + ?,"
+            + " STAYS_2H = STAYS_2H + ?, STAYS_4H = STAYS_4H + ?, STAYS_8H = STAYS_8H + ?, STAYS_24H = STAYS_24H + ?,"
+            + " STAYS_OVER_24H = STAYS_OVER_24H + ? where HOUR_START = ? and TYPE = ?";
+    // same parameters as the update, for an hour not summarized yet
+    public static final String SAVE_HOURLY_SUMMARY = "insert into ticket_hourly_summary(TICKET_COUNT, REVENUE_CENTS, STAY_MILLIS,"
+            + " STAYS_30M, STAYS_1H, STAYS_2H, STAYS_4H, STAYS_8H, STAYS_24H, STAYS_OVER_24H, HOUR_START, TYPE) values(?,?,?,?,?,?,?,?,?,?,?,?)";
+    public static final String GET_HOURLY_SUMMARY = "select TYPE, sum(TICKET_COUNT), sum(REVENUE_CENTS), sum(STAY_MILLIS),"
+            + " sum(STAYS_30M), sum(STAYS_1H), sum(STAYS_2H), sum(STAYS_4H), sum(STAYS_8H), sum(STAYS_24H), sum(STAYS_OVER_24H)"
+            + " from ticket_hourly_summary where HOUR_START >= ? and HOUR_START < ? group by TYPE";
+    public static final String GET_SUMMARY_CHECKPOINT = "select CLOSED_BEFORE from ticket_summary_checkpoint where ID = 1";
+    public static final String LOCK_SUMMARY_CHECKPOINT = GET_SUMMARY_CHECKPOINT + " for update";
+    // a repriced ticket moves the revenue of its hour, for the hours already written: the later ones are read from the tickets
+    public static final String ADD_REPRICING_TO_HOURLY_SUMMARY = "update ticket_hourly_summary set REVENUE_CENTS = REVENUE_CENTS + ?"
+            + " where HOUR_START = ? and TYPE = ? and HOUR_START < (select CLOSED_BEFORE from ticket_summary_checkpoint where ID = 1)";
+    public static final String UPDATE_SUMMARY_CHECKPOINT = "update ticket_summary_checkpoint set CLOSED_BEFORE = ? where ID = 1";
+    public static final String SAVE_SUMMARY_CHECKPOINT = "insert into ticket_summary_checkpoint(ID, CLOSED_BEFORE) values(1, ?)";
+}
@@ -4,4 +4,9 @@ public class Fare {
     public static final double BIKE_RATE_PER_HOUR = 1.0;
     public static final double CAR_RATE_PER_HOUR = 1.5;
     public static final double DISCOUNT = 0.95;
-}
\ No newline at end of file
+
+    // the same rates in cents, used for the actual computation
+    public static final long BIKE_RATE_PER_HOUR_CENTS = 100;
+    public static final long CAR_RATE_PER_HOUR_CENTS = 150;
+    public static final long DISCOUNT_PERCENT = 95;
+}
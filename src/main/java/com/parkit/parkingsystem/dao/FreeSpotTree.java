@@ -0,0 +1,69 @@
+package com.parkit.parkingsystem.dao;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Segment tree of free spot counts over spots laid out in an order of preference, one leaf per rank.
+// Finding the first or last free rank of a range, and marking a rank free or taken, are O(log n).
+// Counts are moved with atomic adds after the availability bit was flipped, so they may lag behind the bits
+// while gates update them, but never drift: a rank found free is only a candidate the caller still has to claim.
+public class FreeSpotTree {
+
+    private final int leafCount;
+    // node 1 is the root, the children of node i are 2i and 2i + 1, leaves start at leafCount
+    private final AtomicIntegerArray freeCounts;
+
+    FreeSpotTree(int rankCount) {
+        int leaves = 1;
+        while (leaves < rankCount) {
+            leaves <<= 1;
+        }
+        this.leafCount = leaves;
+        this.freeCounts = new AtomicIntegerArray(2 * leaves);
+    }
+
+    void spotFreed(int rank) {
+        for (int node = leafCount + rank; node > 0; node >>= 1) {
+            freeCounts.incrementAndGet(node);
+        }
+    }
+
+    void spotTaken(int rank) {
+        for (int node = leafCount + rank; node > 0; node >>= 1) {
+            freeCounts.decrementAndGet(node);
+        }
+    }
+
+    // lowest free rank in [fromRank, toRank), -1 when there is none
+    int first(int fromRank, int toRank) {
+        return (fromRank < toRank) ? first(1, 0, leafCount, fromRank, toRank) : -1;
+    }
+
+    // highest free rank in [fromRank, toRank), -1 when there is none
+    int last(int fromRank, int toRank) {
+        return (fromRank < toRank) ? last(1, 0, leafCount, fromRank, toRank) : -1;
+    }
+
+    private int first(int node, int nodeFrom, int nodeTo, int fromRank, int toRank) {
+        if (nodeTo <= fromRank || toRank <= nodeFrom || freeCounts.get(node) <= 0) {
+            return -1;
+        }
+        if (node >= leafCount) {
+            return nodeFrom;
+        }
+        int middle = (nodeFrom + nodeTo) >>> 1;
+        int rank = first(2 * node, nodeFrom, middle, fromRank, toRank);
+        return (rank >= 0) ? rank : first(2 * node + 1, middle, nodeTo, fromRank, toRank);
+    }
+
+    private int last(int node, int nodeFrom, int nodeTo, int fromRank, int toRank) {
+        if (nodeTo <= fromRank || toRank <= nodeFrom || freeCounts.get(node) <= 0) {
+            return -1;
+        }
+        if (node >= leafCount) {
+            return nodeFrom;
+        }
+        int middle = (nodeFrom + nodeTo) >>> 1;
+        int rank = last(2 * node + 1, middle, nodeTo, fromRank, toRank);
+        return (rank >= 0) ? rank : last(2 * node, nodeFrom, middle, fromRank, toRank);
+    }
+}
@@ -0,0 +1,49 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Free and total spots per parking type, moved along with the availability index. Striped counters,
+// so the gates updating them do not contend, and reads never lock nor touch the database.
+public class OccupancyCounters {
+
+    private final Map<ParkingType, LongAdder> freeSpots = new EnumMap<>(ParkingType.class);
+    private final Map<ParkingType, Long> totalSpots = new EnumMap<>(ParkingType.class);
+
+    OccupancyCounters(Map<ParkingType, Long> totalSpots) {
+        for (ParkingType parkingType : ParkingType.values()) {
+            freeSpots.put(parkingType, new LongAdder());
+            this.totalSpots.put(parkingType, totalSpots.getOrDefault(parkingType, 0L));
+        }
+    }
+
+    void spotFreed(ParkingType parkingType) {
+        freeSpots.get(parkingType).increment();
+    }
+
+    void spotTaken(ParkingType parkingType) {
+        freeSpots.get(parkingType).decrement();
+    }
+
+    public long getFreeCount(ParkingType parkingType) {
+        return freeSpots.get(parkingType).sum();
+    }
+
+    public long getTotalCount(ParkingType parkingType) {
+        return totalSpots.get(parkingType);
+    }
+
+    // Not an atomic snapshot: each count is a moment-in-time estimate, summed while the gates may still update it,
+    // and the counts of different types may be a few updates apart. Exact once the gates are idle.
+    public OccupancySnapshot snapshot() {
+        Map<ParkingType, Long> free = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            free.put(parkingType, freeSpots.get(parkingType).sum());
+        }
+        return new OccupancySnapshot(free, totalSpots, System.currentTimeMillis());
+    }
+}
@@ -3,57 +3,257 @@ package com.parkit.parkingsystem.dao;
 import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
 import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.util.Counter;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ParkingSpotDAO {
     private static final Logger logger = LogManager.getLogger("ParkingSpotDAO");
 
+    private static final LatencyHistogram getNextAvailableSlotLatency = Metrics.histogram("ParkingSpotDAO.getNextAvailableSlot");
+    private static final LatencyHistogram updateParkingLatency = Metrics.histogram("ParkingSpotDAO.updateParking");
+    private static final Counter failures = Metrics.counter("ParkingSpotDAO.failures");
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    // loaded from the parking table on first use, then kept in sync by updateParking
+    private volatile SpotAvailabilityIndex availabilityIndex;
+    private ScheduledExecutorService reconciliationExecutor;
+
+    // when set, the spots are claimed and freed in the index only, the table following as the journal replays the tickets
+    private volatile TicketJournal ticketJournal;
+
+    // The journal of the TicketDAO the spots are taken for, so a gate claims a spot without a database round-trip.
+    // Null writes the parking table directly again.
+    public void setTicketJournal(TicketJournal ticketJournal) {
+        this.ticketJournal = ticketJournal;
+        SpotAvailabilityIndex index = availabilityIndex;
+        if (ticketJournal != null && index != null) {
+            // loaded from a table that does not show the records left to replay yet
+            for (Map.Entry<Integer, Boolean> spot : ticketJournal.getPendingSpotAvailability().entrySet()) {
+                index.setAvailable(spot.getKey(), spot.getValue());
+            }
+        }
+    }
+
     public int getNextAvailableSlot(ParkingType parkingType){
-        Connection con = null;
-        int result=-1;
+        return getNextAvailableSlot(parkingType, SpotAllocationStrategy.LOWEST_NUMBER, null);
+    }
+
+    // the free spot the strategy chooses for the vehicle, 0 when the garage is full and -1 on error
+    public int getNextAvailableSlot(ParkingType parkingType, SpotAllocationStrategy allocationStrategy, String vehicleRegNumber){
+        long start = System.nanoTime();
         try {
-            con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NEXT_PARKING_SPOT);
-            ps.setString(1, parkingType.toString());
-            ResultSet rs = ps.executeQuery();
-            if(rs.next()){
-                result = rs.getInt(1);;
-            }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
+            return allocationStrategy.selectSpot(getAvailabilityIndex(), parkingType, vehicleRegNumber);
         }catch (Exception ex){
+            failures.increment();
             logger.error("Error fetching next available slot",ex);
         }finally {
-            dataBaseConfig.closeConnection(con);
+            getNextAvailableSlotLatency.recordSince(start);
         }
-        return result;
+        return -1;
     }
 
+    // Marking a spot unavailable claims it: false means another gate got it first and the caller should pick another one
     public boolean updateParking(ParkingSpot parkingSpot){
+        long start = System.nanoTime();
+        try {
+            return writeParking(parkingSpot);
+        } finally {
+            updateParkingLatency.recordSince(start);
+        }
+    }
+
+    private boolean writeParking(ParkingSpot parkingSpot) {
+        if (ticketJournal != null) {
+            return writeParkingToIndex(parkingSpot);
+        }
         //update the availability fo that parking slot
+        SpotAvailabilityIndex index = availabilityIndex;
+        boolean claimed = false;
+        if (!parkingSpot.isAvailable() && index != null && index.contains(parkingSpot.getId())) {
+            if (!index.claim(parkingSpot.getId())) {
+                return false;
+            }
+            claimed = true;
+        }
         Connection con = null;
+        PreparedStatement ps = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
-            ps.setBoolean(1, parkingSpot.isAvailable());
-            ps.setInt(2, parkingSpot.getId());
+            if (parkingSpot.isAvailable()) {
+                ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
+                ps.setBoolean(1, true);
+                ps.setInt(2, parkingSpot.getId());
+            } else {
+                ps = con.prepareStatement(DBConstants.CLAIM_PARKING_SPOT);
+                ps.setInt(1, parkingSpot.getId());
+            }
             int updateRowCount = ps.executeUpdate();
-            dataBaseConfig.closePreparedStatement(ps);
+            // when the claim lost against another process the spot stays taken in the index, as in the table
+            if (updateRowCount == 1 && index != null) {
+                int parkingNumber = parkingSpot.getId();
+                boolean available = parkingSpot.isAvailable();
+                if (available) {
+                    index.setAvailable(parkingNumber, true);
+                }
+                // the table change may still be rolled back with the rest of the unit of work
+                dataBaseConfig.registerRollbackAction(() -> index.setAvailable(parkingNumber, !available));
+            }
             return (updateRowCount == 1);
         }catch (Exception ex){
+            failures.increment();
             logger.error("Error updating parking info",ex);
+            if (claimed) {
+                index.setAvailable(parkingSpot.getId(), true);
+            }
             return false;
         }finally {
+            dataBaseConfig.closePreparedStatement(ps);
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private boolean writeParkingToIndex(ParkingSpot parkingSpot) {
+        try {
+            SpotAvailabilityIndex index = getAvailabilityIndex();
+            int parkingNumber = parkingSpot.getId();
+            boolean available = parkingSpot.isAvailable();
+            if (!index.contains(parkingNumber)) {
+                return false;
+            }
+            if (available) {
+                index.setAvailable(parkingNumber, true);
+            } else if (!index.claim(parkingNumber)) {
+                return false;
+            }
+            dataBaseConfig.registerRollbackAction(() -> index.setAvailable(parkingNumber, !available));
+            return true;
+        }catch (Exception ex){
+            failures.increment();
+            logger.error("Error updating parking info",ex);
+            return false;
+        }
+    }
+
+    public SpotAvailabilityIndex getAvailabilityIndex() throws ClassNotFoundException, SQLException {
+        SpotAvailabilityIndex index = availabilityIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = availabilityIndex;
+                if (index == null) {
+                    index = new SpotAvailabilityIndex(getJournaledParkingSpots());
+                    availabilityIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    // Free and total spots per type, read from in-memory counters: cheap enough for display boards to poll constantly.
+    // Only the very first call, if it comes before any other, loads the index from the database. Null on error.
+    public OccupancySnapshot getOccupancySnapshot() {
+        try {
+            return getAvailabilityIndex().getOccupancyCounters().snapshot();
+        }catch (Exception ex){
+            logger.error("Error fetching parking occupancy",ex);
+        }
+        return null;
+    }
+
+    // Checks the index against the parking table, fixing drifted spots and rebuilding it if the table changed shape
+    public void reconcile() {
+        try {
+            long snapshotTime = System.currentTimeMillis();
+            List<ParkingSpot> parkingSpots = getJournaledParkingSpots();
+            SpotAvailabilityIndex index = getAvailabilityIndex();
+            int corrections = index.reconcile(parkingSpots, snapshotTime);
+            if (corrections < 0) {
+                logger.warn("Parking table layout changed, rebuilding the availability index");
+                synchronized (this) {
+                    availabilityIndex = new SpotAvailabilityIndex(parkingSpots);
+                }
+            } else if (corrections > 0) {
+                logger.warn("Availability index was out of sync with the parking table on " + corrections + " spot(s)");
+            }
+        }catch (Exception ex){
+            logger.error("Error reconciling parking availability",ex);
+        }
+    }
+
+    // The parking table with the changes still in the ticket journal applied. The journal is read first: a record
+    // replayed meanwhile is then in both, and one appended meanwhile went through the index after the snapshot time.
+    private List<ParkingSpot> getJournaledParkingSpots() throws ClassNotFoundException, SQLException {
+        TicketJournal currentJournal = ticketJournal;
+        if (currentJournal == null) {
+            return getParkingSpots();
+        }
+        Map<Integer, Boolean> pendingAvailability = currentJournal.getPendingSpotAvailability();
+        List<ParkingSpot> parkingSpots = getParkingSpots();
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            Boolean available = pendingAvailability.get(parkingSpot.getId());
+            if (available != null) {
+                parkingSpot.setAvailable(available);
+            }
+        }
+        return parkingSpots;
+    }
+
+    public synchronized void startReconciliation(long periodMillis) {
+        if (reconciliationExecutor != null) {
+            return;
+        }
+        reconciliationExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "parking-spot-reconciliation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the first pass runs right away and loads the index before the first vehicle arrives
+        reconciliationExecutor.scheduleWithFixedDelay(this::reconcile, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReconciliation() {
+        if (reconciliationExecutor != null) {
+            reconciliationExecutor.shutdownNow();
+            reconciliationExecutor = null;
+        }
+    }
+
+    private List<ParkingSpot> getParkingSpots() throws ClassNotFoundException, SQLException {
+        Connection con = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        try {
+            con = dataBaseConfig.getConnection();
+            ps = con.prepareStatement(DBConstants.GET_PARKING_SPOTS);
+            rs = ps.executeQuery();
+            while(rs.next()){
+                ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(3)), rs.getBoolean(2));
+                parkingSpot.setLevel(rs.getInt(4));
+                parkingSpots.add(parkingSpot);
+            }
+        }finally {
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
             dataBaseConfig.closeConnection(con);
         }
+        return parkingSpots;
     }
 
 }
@@ -0,0 +1,75 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+
+// Chooses the spot a vehicle is sent to among the free ones of the availability index, in O(log n).
+// The choice is only a candidate: the gate still claims it, and asks again when another gate got it first.
+public interface SpotAllocationStrategy {
+
+    // "lowest" (the default), "spread", "nearest:<spot number>", or "regulars" optionally followed by the
+    // strategy of the other vehicles, such as "regulars,spread"
+    String ALLOCATION_PROPERTY = "parking.allocation";
+
+    // 0 when no spot of the type is free. The vehicle number is null when the vehicle is not known yet.
+    int selectSpot(SpotAvailabilityIndex availabilityIndex, ParkingType parkingType, String vehicleRegNumber);
+
+    SpotAllocationStrategy LOWEST_NUMBER = (availabilityIndex, parkingType, vehicleRegNumber)
+            -> availabilityIndex.getLowestAvailable(parkingType);
+
+    SpotAllocationStrategy SPREAD_BY_LEVEL = (availabilityIndex, parkingType, vehicleRegNumber)
+            -> availabilityIndex.getAvailableOnLeastOccupiedLevel(parkingType);
+
+    // closest to an entrance or exit, given by the spot nearest to it
+    static SpotAllocationStrategy nearestTo(int parkingNumber) {
+        return (availabilityIndex, parkingType, vehicleRegNumber) -> availabilityIndex.getNearestAvailable(parkingType, parkingNumber);
+    }
+
+    // Regulars get the spot of their last visit, or the free one closest to it. The others, and regulars coming
+    // with another type of vehicle, get the spot of the fallback strategy. Only vehicles the visit counts know as
+    // regulars are considered, their last spot being looked up in the database when not remembered yet.
+    static SpotAllocationStrategy preferredSpotForRegulars(TicketDAO ticketDAO, SpotAllocationStrategy fallback) {
+        return (availabilityIndex, parkingType, vehicleRegNumber) -> {
+            VisitCounterCache visitCounterCache = ticketDAO.getVisitCounterCache();
+            if (vehicleRegNumber != null && visitCounterCache.get(vehicleRegNumber) > 0) {
+                ParkingSpot lastSpot = visitCounterCache.getLastSpot(vehicleRegNumber);
+                if (lastSpot == null) {
+                    Ticket lastTicket = ticketDAO.getTicket(vehicleRegNumber);
+                    if (lastTicket != null && lastTicket.getOutTime() != null) {
+                        lastSpot = lastTicket.getParkingSpot();
+                        visitCounterCache.setLastSpot(vehicleRegNumber, lastSpot);
+                    }
+                }
+                if (lastSpot != null && lastSpot.getParkingType() == parkingType) {
+                    return availabilityIndex.getNearestAvailable(parkingType, lastSpot.getId());
+                }
+            }
+            return fallback.selectSpot(availabilityIndex, parkingType, vehicleRegNumber);
+        };
+    }
+
+    static SpotAllocationStrategy forName(String name, TicketDAO ticketDAO) {
+        String strategy = name.trim();
+        if (strategy.startsWith("regulars")) {
+            String fallback = strategy.substring("regulars".length()).trim();
+            return preferredSpotForRegulars(ticketDAO,
+                    fallback.startsWith(",") ? forName(fallback.substring(1), ticketDAO) : LOWEST_NUMBER);
+        }
+        if (strategy.startsWith("nearest:")) {
+            return nearestTo(Integer.parseInt(strategy.substring("nearest:".length()).trim()));
+        }
+        if ("spread".equals(strategy)) {
+            return SPREAD_BY_LEVEL;
+        }
+        if ("lowest".equals(strategy)) {
+            return LOWEST_NUMBER;
+        }
+        throw new IllegalArgumentException("Unknown spot allocation strategy: " + name);
+    }
+
+    // The strategy given with -Dparking.allocation, the lowest number by default
+    static SpotAllocationStrategy fromSystemProperty(TicketDAO ticketDAO) {
+        return forName(System.getProperty(ALLOCATION_PROPERTY, "lowest"), ticketDAO);
+    }
+}
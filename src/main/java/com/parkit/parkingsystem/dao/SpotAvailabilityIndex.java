@@ -0,0 +1,331 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SpotAvailabilityIndex {
+
+    // one bit per parking number, set when the spot is free. Bits are flipped with CAS so
+    // concurrent gates never block each other and two claims on the same spot cannot both win.
+    private final Map<ParkingType, AtomicLongArray> freeSpots = new EnumMap<>(ParkingType.class);
+    private final ParkingType[] spotTypes;
+    private final AtomicLongArray lastUpdates;
+    // moved on every bit flip, so they always agree with the bits
+    private final OccupancyCounters occupancyCounters;
+    // where the spots are, for the allocation strategies: level of each parking number, lowest number of each level
+    private final int[] spotLevels;
+    private final Map<Integer, Integer> firstNumberOfLevels = new HashMap<>();
+    private final Map<ParkingType, SpotLayout> layouts = new EnumMap<>(ParkingType.class);
+
+    // The spots of one type, with segment trees of the free ones by parking number and by level then number,
+    // also moved on every bit flip, so the strategies find a spot in O(log n) instead of scanning the bits
+    private static class SpotLayout {
+        private final FreeSpotTree byNumber;
+        private final FreeSpotTree byLevel;
+        // parking number of each rank of byLevel, and the rank of each parking number in it
+        private final int[] numbersByLevelRank;
+        private final int[] levelRanks;
+        // distinct levels in ascending order, with the first rank of each and one past the last
+        private final int[] levels;
+        private final int[] levelStartRanks;
+        private final int[] levelIndexes;
+        private final int[] levelTotals;
+        private final AtomicIntegerArray levelFreeCounts;
+
+        private SpotLayout(List<ParkingSpot> parkingSpots, int maxNumber) {
+            parkingSpots.sort(Comparator.comparingInt(ParkingSpot::getLevel).thenComparingInt(ParkingSpot::getId));
+            byNumber = new FreeSpotTree(maxNumber + 1);
+            byLevel = new FreeSpotTree(parkingSpots.size());
+            numbersByLevelRank = new int[parkingSpots.size()];
+            levelRanks = new int[maxNumber + 1];
+            levelIndexes = new int[maxNumber + 1];
+            List<Integer> levelList = new ArrayList<>();
+            List<Integer> startRanks = new ArrayList<>();
+            for (int rank = 0; rank < parkingSpots.size(); rank++) {
+                ParkingSpot parkingSpot = parkingSpots.get(rank);
+                if (levelList.isEmpty() || levelList.get(levelList.size() - 1) != parkingSpot.getLevel()) {
+                    levelList.add(parkingSpot.getLevel());
+                    startRanks.add(rank);
+                }
+                numbersByLevelRank[rank] = parkingSpot.getId();
+                levelRanks[parkingSpot.getId()] = rank;
+                levelIndexes[parkingSpot.getId()] = levelList.size() - 1;
+            }
+            startRanks.add(parkingSpots.size());
+            levels = levelList.stream().mapToInt(Integer::intValue).toArray();
+            levelStartRanks = startRanks.stream().mapToInt(Integer::intValue).toArray();
+            levelTotals = new int[levels.length];
+            for (int i = 0; i < levels.length; i++) {
+                levelTotals[i] = levelStartRanks[i + 1] - levelStartRanks[i];
+            }
+            levelFreeCounts = new AtomicIntegerArray(levels.length);
+        }
+
+        private void spotFreed(int parkingNumber) {
+            byNumber.spotFreed(parkingNumber);
+            byLevel.spotFreed(levelRanks[parkingNumber]);
+            levelFreeCounts.incrementAndGet(levelIndexes[parkingNumber]);
+        }
+
+        private void spotTaken(int parkingNumber) {
+            byNumber.spotTaken(parkingNumber);
+            byLevel.spotTaken(levelRanks[parkingNumber]);
+            levelFreeCounts.decrementAndGet(levelIndexes[parkingNumber]);
+        }
+
+        // free spot of the level closest in number to the target, 0 when the level is full
+        private int getNearestAvailableOnLevel(int levelIndex, int targetNumber) {
+            int fromRank = levelStartRanks[levelIndex];
+            int toRank = levelStartRanks[levelIndex + 1];
+            int targetRank = Arrays.binarySearch(numbersByLevelRank, fromRank, toRank, targetNumber);
+            if (targetRank < 0) {
+                targetRank = -targetRank - 1;
+            }
+            int above = byLevel.first(targetRank, toRank);
+            int below = byLevel.last(fromRank, targetRank);
+            if (above < 0) {
+                return (below < 0) ? 0 : numbersByLevelRank[below];
+            }
+            if (below < 0 || numbersByLevelRank[above] - targetNumber <= targetNumber - numbersByLevelRank[below]) {
+                return numbersByLevelRank[above];
+            }
+            return numbersByLevelRank[below];
+        }
+    }
+
+    public SpotAvailabilityIndex(List<ParkingSpot> parkingSpots) {
+        int maxNumber = 0;
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            maxNumber = Math.max(maxNumber, parkingSpot.getId());
+        }
+        spotTypes = new ParkingType[maxNumber + 1];
+        spotLevels = new int[maxNumber + 1];
+        lastUpdates = new AtomicLongArray(maxNumber + 1);
+        for (ParkingType parkingType : ParkingType.values()) {
+            freeSpots.put(parkingType, new AtomicLongArray((maxNumber >> 6) + 1));
+        }
+        Map<ParkingType, Long> totalSpots = new EnumMap<>(ParkingType.class);
+        Map<ParkingType, List<ParkingSpot>> spotsByType = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            spotsByType.put(parkingType, new ArrayList<>());
+        }
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            spotTypes[parkingSpot.getId()] = parkingSpot.getParkingType();
+            spotLevels[parkingSpot.getId()] = parkingSpot.getLevel();
+            firstNumberOfLevels.merge(parkingSpot.getLevel(), parkingSpot.getId(), Math::min);
+            totalSpots.merge(parkingSpot.getParkingType(), 1L, Long::sum);
+            spotsByType.get(parkingSpot.getParkingType()).add(parkingSpot);
+        }
+        occupancyCounters = new OccupancyCounters(totalSpots);
+        for (ParkingType parkingType : ParkingType.values()) {
+            layouts.put(parkingType, new SpotLayout(spotsByType.get(parkingType), maxNumber));
+        }
+        for (ParkingSpot parkingSpot : parkingSpots) {
+            if (parkingSpot.isAvailable()) {
+                setBit(parkingSpot.getParkingType(), parkingSpot.getId());
+            }
+        }
+    }
+
+    public boolean contains(int parkingNumber) {
+        return parkingNumber > 0 && parkingNumber < spotTypes.length && spotTypes[parkingNumber] != null;
+    }
+
+    public int getLowestAvailable(ParkingType parkingType) {
+        int parkingNumber = layouts.get(parkingType).byNumber.first(0, spotTypes.length);
+        // the tree may lag behind a spot freed at this very moment, the bits have the last word on a full garage
+        return (parkingNumber > 0) ? parkingNumber : scanLowestAvailable(parkingType);
+    }
+
+    // Free spot closest to the given one: on its level the closest in number, else on the closest level that has
+    // one, at the same distance from the first spot of the level. An entrance or exit is given by its nearest spot.
+    // O(log n) while the level of the spot has room, plus O(log n) per full level looked past.
+    public int getNearestAvailable(ParkingType parkingType, int anchorParkingNumber) {
+        if (!contains(anchorParkingNumber)) {
+            return getLowestAvailable(parkingType);
+        }
+        SpotLayout layout = layouts.get(parkingType);
+        int anchorLevel = spotLevels[anchorParkingNumber];
+        int offset = anchorParkingNumber - firstNumberOfLevels.get(anchorLevel);
+        int above = Arrays.binarySearch(layout.levels, anchorLevel);
+        if (above < 0) {
+            above = -above - 1;
+        }
+        int below = above - 1;
+        while (below >= 0 || above < layout.levels.length) {
+            long belowDistance = (below >= 0) ? (long) anchorLevel - layout.levels[below] : Long.MAX_VALUE;
+            long aboveDistance = (above < layout.levels.length) ? (long) layout.levels[above] - anchorLevel : Long.MAX_VALUE;
+            long distance = Math.min(belowDistance, aboveDistance);
+            int nearest = 0;
+            long nearestGap = Long.MAX_VALUE;
+            if (aboveDistance == distance) {
+                int targetNumber = firstNumberOfLevels.get(layout.levels[above]) + offset;
+                nearest = layout.getNearestAvailableOnLevel(above, targetNumber);
+                nearestGap = Math.abs((long) nearest - targetNumber);
+                above++;
+            }
+            if (belowDistance == distance) {
+                int targetNumber = firstNumberOfLevels.get(layout.levels[below]) + offset;
+                int candidate = layout.getNearestAvailableOnLevel(below, targetNumber);
+                if (candidate > 0 && (nearest == 0 || Math.abs((long) candidate - targetNumber) < nearestGap)) {
+                    nearest = candidate;
+                }
+                below--;
+            }
+            if (nearest > 0) {
+                return nearest;
+            }
+        }
+        return scanLowestAvailable(parkingType);
+    }
+
+    // Lowest free spot of the level with the smallest share of taken spots, so vehicles spread over the levels.
+    // O(levels + log n).
+    public int getAvailableOnLeastOccupiedLevel(ParkingType parkingType) {
+        SpotLayout layout = layouts.get(parkingType);
+        int bestLevel = -1;
+        long bestFree = 0;
+        for (int i = 0; i < layout.levels.length; i++) {
+            long free = layout.levelFreeCounts.get(i);
+            // free / total above the best one so far, without dividing
+            if (free > 0 && (bestLevel < 0 || free * layout.levelTotals[bestLevel] > bestFree * layout.levelTotals[i])) {
+                bestLevel = i;
+                bestFree = free;
+            }
+        }
+        if (bestLevel >= 0) {
+            int rank = layout.byLevel.first(layout.levelStartRanks[bestLevel], layout.levelStartRanks[bestLevel + 1]);
+            if (rank >= 0) {
+                return layout.numbersByLevelRank[rank];
+            }
+        }
+        return scanLowestAvailable(parkingType);
+    }
+
+    public int getLevel(int parkingNumber) {
+        return contains(parkingNumber) ? spotLevels[parkingNumber] : 0;
+    }
+
+    private int scanLowestAvailable(ParkingType parkingType) {
+        AtomicLongArray words = freeSpots.get(parkingType);
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return 0;
+    }
+
+    public int getAvailableCount(ParkingType parkingType) {
+        AtomicLongArray words = freeSpots.get(parkingType);
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    // Atomically takes a free spot. Only one caller can get true for a given free spot.
+    public boolean claim(int parkingNumber) {
+        if (!contains(parkingNumber)) {
+            return false;
+        }
+        if (clearBit(spotTypes[parkingNumber], parkingNumber)) {
+            lastUpdates.set(parkingNumber, System.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    // Claims the lowest free spot of the given type, or returns 0 when there is none left
+    public int claimLowestAvailable(ParkingType parkingType) {
+        int parkingNumber;
+        while ((parkingNumber = getLowestAvailable(parkingType)) > 0) {
+            if (claim(parkingNumber)) {
+                return parkingNumber;
+            }
+        }
+        return 0;
+    }
+
+    public void setAvailable(int parkingNumber, boolean available) {
+        if (!contains(parkingNumber)) {
+            return;
+        }
+        if (available) {
+            setBit(spotTypes[parkingNumber], parkingNumber);
+        } else {
+            clearBit(spotTypes[parkingNumber], parkingNumber);
+        }
+        lastUpdates.set(parkingNumber, System.currentTimeMillis());
+    }
+
+    // Aligns the index on a snapshot of the parking table read from snapshotTime onwards.
+    // Spots updated through the index since then are skipped: their snapshot row may be stale.
+    // Returns the number of corrected spots, or -1 when the snapshot holds spots unknown to the index.
+    public int reconcile(List<ParkingSpot> snapshot, long snapshotTime) {
+        int corrections = 0;
+        for (ParkingSpot parkingSpot : snapshot) {
+            int parkingNumber = parkingSpot.getId();
+            if (!contains(parkingNumber) || spotTypes[parkingNumber] != parkingSpot.getParkingType()) {
+                return -1;
+            }
+            if (lastUpdates.get(parkingNumber) >= snapshotTime) {
+                continue;
+            }
+            ParkingType parkingType = parkingSpot.getParkingType();
+            boolean changed = parkingSpot.isAvailable() ? setBit(parkingType, parkingNumber) : clearBit(parkingType, parkingNumber);
+            if (changed) {
+                corrections++;
+            }
+        }
+        return corrections;
+    }
+
+    public OccupancyCounters getOccupancyCounters() {
+        return occupancyCounters;
+    }
+
+    private boolean setBit(ParkingType parkingType, int bit) {
+        AtomicLongArray words = freeSpots.get(parkingType);
+        int i = bit >> 6;
+        long mask = 1L << bit;
+        long word;
+        do {
+            word = words.get(i);
+            if ((word & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(i, word, word | mask));
+        occupancyCounters.spotFreed(parkingType);
+        layouts.get(parkingType).spotFreed(bit);
+        return true;
+    }
+
+    private boolean clearBit(ParkingType parkingType, int bit) {
+        AtomicLongArray words = freeSpots.get(parkingType);
+        int i = bit >> 6;
+        long mask = 1L << bit;
+        long word;
+        do {
+            word = words.get(i);
+            if ((word & mask) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(i, word, word & ~mask));
+        occupancyCounters.spotTaken(parkingType);
+        layouts.get(parkingType).spotTaken(bit);
+        return true;
+    }
+}
@@ -5,25 +5,181 @@ import com.parkit.parkingsystem.constants.DBConstants;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.Counter;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TicketDAO {
 
     private static final Logger logger = LogManager.getLogger("TicketDAO");
 
+    private static final int VISIT_COUNT_CACHE_SIZE = 10000;
+
+    public static final String JOURNAL_FILE_PROPERTY = "parking.journal.file";
+    private static final int JOURNAL_CAPACITY = 100000;
+    private static final int JOURNAL_REPLAY_BATCH_SIZE = 500;
+
+    // "true" queues ticket writes and writes them in batches, the journal taking precedence when both are set
+    public static final String WRITE_BEHIND_PROPERTY = "parking.write.behind";
+    private static final int WRITE_BEHIND_BATCH_SIZE = 100;
+    private static final long WRITE_BEHIND_FLUSH_INTERVAL_MILLIS = 20;
+    private static final int WRITE_BEHIND_CAPACITY = 10000;
+    // file of the queued writes the database keeps refusing, suffixed with the garage like the journal
+    public static final String WRITE_BEHIND_DEAD_LETTER_FILE_PROPERTY = "parking.write.behind.dead.letter.file";
+
+    private static final LatencyHistogram saveTicketLatency = Metrics.histogram("TicketDAO.saveTicket");
+    private static final LatencyHistogram getTicketLatency = Metrics.histogram("TicketDAO.getTicket");
+    private static final LatencyHistogram updateTicketLatency = Metrics.histogram("TicketDAO.updateTicket");
+    private static final LatencyHistogram getNbTicketLatency = Metrics.histogram("TicketDAO.getNbTicket");
+    private static final Counter failures = Metrics.counter("TicketDAO.failures");
+
     public DataBaseConfig dataBaseConfig = new DataBaseConfig();
 
+    // completed visits of recently seen vehicles, so the recurring user check does not count tickets every time
+    private final VisitCounterCache visitCounterCache = new VisitCounterCache(VISIT_COUNT_CACHE_SIZE);
+
+    // open tickets of the vehicles currently parked, so an exit does not have to search the ticket history
+    private final Map<String, Ticket> openTickets = new ConcurrentHashMap<>();
+
+    // when set, ticket writes are queued and written in batches instead of on the gate thread
+    private volatile TicketWriteBehind writeBehind;
+
+    // when set, ticket writes are appended to a local journal and replayed into the database in the background
+    private volatile TicketJournal journal;
+
+    // with the journal, counts the visits of the vehicles entering while not cached, off the gate thread
+    private ExecutorService visitCountLoader;
+    private final Set<String> loadingVisitCounts = ConcurrentHashMap.newKeySet();
+
+    // Ticket writes then only wait for the local disk, and reads may not see them until they are replayed.
+    // The tickets left open in the journal by the previous run are served from memory again.
+    public synchronized void enableJournal(File file, int capacity, int replayBatchSize) throws IOException {
+        if (journal == null) {
+            TicketJournal openedJournal = new TicketJournal(dataBaseConfig, file, capacity, replayBatchSize);
+            for (Ticket ticket : openedJournal.getRecoveredOpenTickets()) {
+                openTickets.put(ticket.getVehicleRegNumber(), ticket);
+            }
+            visitCountLoader = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "visit-count-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journal = openedJournal;
+        }
+    }
+
+    // Enables the journal when a file is given with -Dparking.journal.file, suffixed with the garage
+    // for garages other than the default one so that each garage replays into its own database
+    public void enableJournalFromSystemProperty() throws IOException {
+        String journalFile = System.getProperty(JOURNAL_FILE_PROPERTY);
+        if (journalFile != null) {
+            int garageId = dataBaseConfig.getGarageId();
+            if (garageId != DataBaseConfig.DEFAULT_GARAGE_ID) {
+                journalFile += "-garage-" + garageId;
+            }
+            enableJournal(new File(journalFile), JOURNAL_CAPACITY, JOURNAL_REPLAY_BATCH_SIZE);
+        }
+    }
+
+    public synchronized void disableJournal() throws InterruptedException, IOException {
+        if (journal != null) {
+            visitCountLoader.shutdownNow();
+            visitCountLoader = null;
+            loadingVisitCounts.clear();
+            journal.close();
+            journal = null;
+        }
+    }
+
+    // the journal the ticket writes go to, null when they go to the database
+    public TicketJournal getJournal() {
+        return journal;
+    }
+
+    // Ticket writes are then queued, cancelled if the caller's unit of work rolls back, and reads may not see them
+    // until they are flushed
+    public synchronized void enableWriteBehind(int batchSize, long flushIntervalMillis, int capacity) {
+        String deadLetterFile = System.getProperty(WRITE_BEHIND_DEAD_LETTER_FILE_PROPERTY, TicketWriteBehind.DEFAULT_DEAD_LETTER_FILE);
+        int garageId = dataBaseConfig.getGarageId();
+        if (garageId != DataBaseConfig.DEFAULT_GARAGE_ID) {
+            deadLetterFile += "-garage-" + garageId;
+        }
+        enableWriteBehind(batchSize, flushIntervalMillis, capacity, new File(deadLetterFile));
+    }
+
+    public synchronized void enableWriteBehind(int batchSize, long flushIntervalMillis, int capacity, File deadLetterFile) {
+        if (writeBehind == null) {
+            writeBehind = new TicketWriteBehind(dataBaseConfig, batchSize, flushIntervalMillis, capacity, deadLetterFile);
+        }
+    }
+
+    public void enableWriteBehindFromSystemProperty() {
+        if (Boolean.parseBoolean(System.getProperty(WRITE_BEHIND_PROPERTY))) {
+            enableWriteBehind(WRITE_BEHIND_BATCH_SIZE, WRITE_BEHIND_FLUSH_INTERVAL_MILLIS, WRITE_BEHIND_CAPACITY);
+        }
+    }
+
+    // Waits for the queued writes to reach the database
+    public synchronized void disableWriteBehind() throws InterruptedException {
+        if (writeBehind != null) {
+            writeBehind.close();
+            writeBehind = null;
+        }
+    }
+
+    public void flush() throws InterruptedException {
+        TicketJournal currentJournal = journal;
+        if (currentJournal != null) {
+            currentJournal.flush();
+        }
+        TicketWriteBehind currentWriteBehind = writeBehind;
+        if (currentWriteBehind != null) {
+            currentWriteBehind.flush();
+        }
+    }
+
     public boolean saveTicket(Ticket ticket){
+        long start = System.nanoTime();
+        try {
+            return insertTicket(ticket);
+        } finally {
+            saveTicketLatency.recordSince(start);
+        }
+    }
+
+    private boolean insertTicket(Ticket ticket) {
+        // the ticket belongs to the garage of the database it is written to
+        ticket.setGarageId(dataBaseConfig.getGarageId());
+        TicketJournal currentJournal = journal;
+        if (currentJournal != null) {
+            return append(currentJournal, ticket, true);
+        }
+        TicketWriteBehind currentWriteBehind = writeBehind;
+        if (currentWriteBehind != null) {
+            return enqueue(currentWriteBehind, ticket, true);
+        }
         Connection con = null;
+        PreparedStatement ps = null;
+        ResultSet generatedKeys = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.SAVE_TICKET);
+            ps = con.prepareStatement(DBConstants.SAVE_TICKET, Statement.RETURN_GENERATED_KEYS);
             //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
             //ps.setInt(1,ticket.getId());
             ps.setInt(1,ticket.getParkingSpot().getId());
@@ -31,84 +187,345 @@ public class TicketDAO {
             ps.setDouble(3, ticket.getPrice());
             ps.setTimestamp(4, new Timestamp(ticket.getInTime().getTime()));
             ps.setTimestamp(5, (ticket.getOutTime() == null)?null: (new Timestamp(ticket.getOutTime().getTime())) );
-            return ps.execute();
+            ps.setInt(6, ticket.getGarageId());
+            int updateRowCount = ps.executeUpdate();
+            generatedKeys = ps.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                ticket.setId(generatedKeys.getInt(1));
+            }
+            if (updateRowCount == 1) {
+                if (ticket.getOutTime() != null) {
+                    recordCompletedVisit(ticket);
+                } else {
+                    recordOpenTicket(ticket);
+                }
+            }
+            return (updateRowCount == 1);
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
+            failures.increment();
+            logger.error("Error saving ticket info",ex);
         }finally {
+            dataBaseConfig.closeResultSet(generatedKeys);
+            dataBaseConfig.closePreparedStatement(ps);
             dataBaseConfig.closeConnection(con);
-            return false;
         }
+        return false;
     }
 
     public Ticket getTicket(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        try {
+            return findTicket(vehicleRegNumber);
+        } finally {
+            getTicketLatency.recordSince(start);
+        }
+    }
+
+    private Ticket findTicket(String vehicleRegNumber) {
+        Ticket openTicket = openTickets.get(vehicleRegNumber);
+        if (openTicket != null) {
+            return copyOf(openTicket);
+        }
         Connection con = null;
         Ticket ticket = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKET);
+            ticket = readTicket(con, DBConstants.GET_TICKET, vehicleRegNumber);
+            if (ticket == null) {
+                // only vehicles not seen since their tickets were archived get this far
+                ticket = readTicket(con, DBConstants.GET_ARCHIVED_TICKET, vehicleRegNumber);
+            } else if (ticket.getOutTime() == null) {
+                // parked before this DAO was started, served from memory from now on
+                openTickets.putIfAbsent(vehicleRegNumber, copyOf(ticket));
+            }
+        }catch (Exception ex){
+            failures.increment();
+            logger.error("Error fetching the ticket of vehicle " + vehicleRegNumber,ex);
+        }finally {
+            dataBaseConfig.closeConnection(con);
+            return ticket;
+        }
+    }
+
+    private Ticket readTicket(Connection con, String query, String vehicleRegNumber) throws SQLException {
+        Ticket ticket = null;
+        PreparedStatement ps = con.prepareStatement(query);
+        ResultSet rs = null;
+        try {
             //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
             ps.setString(1,vehicleRegNumber);
-            ResultSet rs = ps.executeQuery();
+            rs = ps.executeQuery();
             if(rs.next()){
                 ticket = new Ticket();
                 ParkingSpot parkingSpot = new ParkingSpot(rs.getInt(1), ParkingType.valueOf(rs.getString(6)),false);
+                parkingSpot.setLevel(rs.getInt(8));
                 ticket.setParkingSpot(parkingSpot);
                 ticket.setId(rs.getInt(2));
+                ticket.setGarageId(rs.getInt(7));
                 ticket.setVehicleRegNumber(vehicleRegNumber);
                 ticket.setPrice(rs.getDouble(3));
                 ticket.setInTime(rs.getTimestamp(4));
                 ticket.setOutTime(rs.getTimestamp(5));
             }
+        } finally {
             dataBaseConfig.closeResultSet(rs);
             dataBaseConfig.closePreparedStatement(ps);
-        }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
-        }finally {
-            dataBaseConfig.closeConnection(con);
-            return ticket;
         }
+        return ticket;
     }
 
     public boolean updateTicket(Ticket ticket) {
+        long start = System.nanoTime();
+        try {
+            return closeTicket(ticket);
+        } finally {
+            updateTicketLatency.recordSince(start);
+        }
+    }
+
+    private boolean closeTicket(Ticket ticket) {
+        TicketJournal currentJournal = journal;
+        if (currentJournal != null) {
+            return append(currentJournal, ticket, false);
+        }
+        TicketWriteBehind currentWriteBehind = writeBehind;
+        if (currentWriteBehind != null) {
+            return enqueue(currentWriteBehind, ticket, false);
+        }
         Connection con = null;
+        PreparedStatement ps = null;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
+            ps = con.prepareStatement(DBConstants.UPDATE_TICKET);
             ps.setDouble(1, ticket.getPrice());
             ps.setTimestamp(2, new Timestamp(ticket.getOutTime().getTime()));
             ps.setInt(3,ticket.getId());
-            ps.execute();
-            return true;
+            int updateRowCount = ps.executeUpdate();
+            if (updateRowCount == 1) {
+                recordClosedTicket(ticket);
+            }
+            return (updateRowCount == 1);
         }catch (Exception ex){
+            failures.increment();
             logger.error("Error saving ticket info",ex);
         }finally {
+            dataBaseConfig.closePreparedStatement(ps);
             dataBaseConfig.closeConnection(con);
         }
         return false;
     }
 
+    // With write-behind, waits for the writes still queued for the vehicle so the count includes them
     public int getNbTicket(String vehicleRegNumber) {
+        long start = System.nanoTime();
+        try {
+            return countTickets(vehicleRegNumber, true);
+        } finally {
+            getNbTicketLatency.recordSince(start);
+        }
+    }
+
+    private int countTickets(String vehicleRegNumber, boolean waitForQueuedWrites) {
+        int cachedNbTicket = visitCounterCache.get(vehicleRegNumber);
+        if (cachedNbTicket >= 0) {
+            return cachedNbTicket;
+        }
+        long version = visitCounterCache.getVersion();
+        TicketWriteBehind currentWriteBehind = writeBehind;
+        if (waitForQueuedWrites && currentWriteBehind != null && currentWriteBehind.hasPendingWrites(vehicleRegNumber)) {
+            try {
+                currentWriteBehind.flush();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while flushing the queued ticket writes of vehicle " + vehicleRegNumber, ex);
+            }
+        }
+        // a count missing writes still queued would stay short in the cache
+        boolean writesPending = currentWriteBehind != null && currentWriteBehind.hasPendingWrites(vehicleRegNumber);
         Connection con = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
         int nbTicket = 0;
         try {
             con = dataBaseConfig.getConnection();
-            PreparedStatement ps = con.prepareStatement(DBConstants.GET_NB_TICKET);
+            ps = con.prepareStatement(DBConstants.GET_NB_TICKET);
             ps.setString(1,vehicleRegNumber);
+            ps.setString(2,vehicleRegNumber);
 
-            ResultSet rs = ps.executeQuery();
+            rs = ps.executeQuery();
             if(rs.next()){
                 nbTicket = rs.getInt(1);
             }
-            dataBaseConfig.closeResultSet(rs);
-            dataBaseConfig.closePreparedStatement(ps);
 
+            if (!writesPending) {
+                visitCounterCache.put(vehicleRegNumber, nbTicket, version);
+            }
             return nbTicket;
         }catch (Exception ex){
-            logger.error("Error fetching next available slot",ex);
+            failures.increment();
+            logger.error("Error counting the tickets of vehicle " + vehicleRegNumber,ex);
         }finally {
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
             dataBaseConfig.closeConnection(con);
         }
         return nbTicket;
     }
 
+    // The recurring user check of an entry. With the journal, a vehicle not cached is counted in the background for
+    // its exit and -1 is returned, so the gate never waits for the database. With write-behind, the writes queued by
+    // the entry itself are not waited for, and a count read while some are queued is not cached.
+    public int getNbTicketWithoutWaiting(String vehicleRegNumber) {
+        TicketJournal currentJournal = journal;
+        if (currentJournal == null) {
+            long start = System.nanoTime();
+            try {
+                return countTickets(vehicleRegNumber, false);
+            } finally {
+                getNbTicketLatency.recordSince(start);
+            }
+        }
+        int cachedNbTicket = visitCounterCache.get(vehicleRegNumber);
+        if (cachedNbTicket < 0) {
+            loadVisitCount(currentJournal, vehicleRegNumber);
+        }
+        return cachedNbTicket;
+    }
+
+    private synchronized void loadVisitCount(TicketJournal currentJournal, String vehicleRegNumber) {
+        if (journal != currentJournal || !loadingVisitCounts.add(vehicleRegNumber)) {
+            return;
+        }
+        visitCountLoader.execute(() -> {
+            try {
+                // the visits still in the journal are counted once replayed
+                currentJournal.flush();
+                getNbTicket(vehicleRegNumber);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                loadingVisitCounts.remove(vehicleRegNumber);
+            }
+        });
+    }
+
+    public VisitCounterCache getVisitCounterCache() {
+        return visitCounterCache;
+    }
+
+    public int getOpenTicketCount() {
+        return openTickets.size();
+    }
+
+    // To call when the ticket table was changed behind this DAO
+    public void clearCache() {
+        visitCounterCache.clear();
+        openTickets.clear();
+    }
+
+    private void recordOpenTicket(Ticket ticket) {
+        String vehicleRegNumber = ticket.getVehicleRegNumber();
+        openTickets.put(vehicleRegNumber, copyOf(ticket));
+        dataBaseConfig.registerRollbackAction(() -> openTickets.remove(vehicleRegNumber));
+    }
+
+    // every open ticket is in openTickets, a ticket closed again does not make another visit
+    private void recordClosedTicket(Ticket ticket) {
+        String vehicleRegNumber = ticket.getVehicleRegNumber();
+        Ticket openTicket = openTickets.remove(vehicleRegNumber);
+        if (openTicket != null) {
+            dataBaseConfig.registerRollbackAction(() -> openTickets.put(vehicleRegNumber, openTicket));
+            recordCompletedVisit(ticket);
+        }
+    }
+
+    private void recordCompletedVisit(Ticket ticket) {
+        String vehicleRegNumber = ticket.getVehicleRegNumber();
+        visitCounterCache.add(vehicleRegNumber, 1);
+        visitCounterCache.setLastSpot(vehicleRegNumber, ticket.getParkingSpot());
+        dataBaseConfig.registerRollbackAction(() -> visitCounterCache.add(vehicleRegNumber, -1));
+    }
+
+    private boolean enqueue(TicketWriteBehind currentWriteBehind, Ticket ticket, boolean newTicket) {
+        try {
+            Runnable cancel = newTicket ? currentWriteBehind.enqueueSave(ticket) : currentWriteBehind.enqueueUpdate(ticket);
+            // the write leaves the unit of work once queued: rolling it back cancels the write
+            dataBaseConfig.registerRollbackAction(cancel);
+            recordQueuedWrite(ticket, newTicket);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failures.increment();
+            logger.error("Interrupted while queuing ticket info",ex);
+        } catch (Exception ex) {
+            failures.increment();
+            logger.error("Error queuing ticket info",ex);
+        }
+        return false;
+    }
+
+    private boolean append(TicketJournal currentJournal, Ticket ticket, boolean newTicket) {
+        try {
+            if (newTicket) {
+                currentJournal.appendSave(ticket);
+            } else {
+                currentJournal.appendUpdate(ticket);
+            }
+            // the record is on disk before the unit of work commits: rolling it back cancels the record
+            dataBaseConfig.registerRollbackAction(() -> cancel(currentJournal, ticket, newTicket));
+            recordQueuedWrite(ticket, newTicket);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failures.increment();
+            logger.error("Interrupted while journaling ticket info",ex);
+        } catch (Exception ex) {
+            failures.increment();
+            logger.error("Error journaling ticket info",ex);
+        }
+        return false;
+    }
+
+    private void cancel(TicketJournal currentJournal, Ticket ticket, boolean newTicket) {
+        try {
+            if (newTicket) {
+                currentJournal.appendSaveCancel(ticket);
+            } else {
+                currentJournal.appendUpdateCancel(ticket);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failures.increment();
+            logger.error("Interrupted while cancelling journaled ticket info of vehicle " + ticket.getVehicleRegNumber(),ex);
+        } catch (Exception ex) {
+            failures.increment();
+            logger.error("Error cancelling journaled ticket info of vehicle " + ticket.getVehicleRegNumber(),ex);
+        }
+    }
+
+    private void recordQueuedWrite(Ticket ticket, boolean newTicket) {
+        if (!newTicket) {
+            recordClosedTicket(ticket);
+        } else if (ticket.getOutTime() != null) {
+            recordCompletedVisit(ticket);
+        } else {
+            recordOpenTicket(ticket);
+        }
+    }
+
+    private static Ticket copyOf(Ticket ticket) {
+        Ticket copy = new Ticket();
+        copy.setId(ticket.getId());
+        ParkingSpot parkingSpot = ticket.getParkingSpot();
+        ParkingSpot parkingSpotCopy = new ParkingSpot(parkingSpot.getId(), parkingSpot.getParkingType(), parkingSpot.isAvailable());
+        parkingSpotCopy.setLevel(parkingSpot.getLevel());
+        copy.setParkingSpot(parkingSpotCopy);
+        copy.setGarageId(ticket.getGarageId());
+        copy.setVehicleRegNumber(ticket.getVehicleRegNumber());
+        copy.setPrice(ticket.getPrice());
+        copy.setInTime(ticket.getInTime());
+        copy.setOutTime(ticket.getOutTime());
+        return copy;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,536 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Append-only journal of ticket writes in a memory-mapped file, for gates with a slow or unreliable database link.
+// An append returns once its record is on disk, the appends arriving while the file is synced share the next sync.
+// A background thread replays the records into the ticket and parking tables in order, and keeps retrying while the
+// database is unreachable. A record the database keeps refusing is moved to a dead-letter file next to the journal
+// so the ones after it still go through. Records not replayed yet survive a crash and are replayed when the journal
+// is opened again. A cancel record undoes the write of a unit of work rolled back after its record was appended.
+// The file is a header holding the sequence of the last replayed record, then a ring of 64 byte records:
+//   sequence(8) kind(1) type(1) reg length(1) unused(1) parking number(4) in-time(8) out-time(8) price(8) reg(20) crc(4)
+public class TicketJournal {
+
+    private static final Logger logger = LogManager.getLogger("TicketJournal");
+
+    private static final int MAGIC = 0x544A524E;
+    private static final int RECORD_SIZE = 64;
+    private static final int MAX_REG_BYTES = 20;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+    private static final int REPLAYED_SEQUENCE_OFFSET = 8;
+    private static final byte SAVE = 1;
+    private static final byte UPDATE = 2;
+    private static final byte SAVE_CANCEL = 3;
+    private static final byte UPDATE_CANCEL = 4;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    // a stored time may have lost its milliseconds, so a ticket is found by its in-time within a second
+    static final long IN_TIME_TOLERANCE_MILLIS = 1000;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30 * 1000;
+    // refusals of a record by a reachable database before it goes to the dead-letter file
+    private static final int MAX_REJECTED_ATTEMPTS = 5;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    // the database was reachable but refused the batch, retrying it as it is will not help
+    private static class RejectedBatchException extends SQLException {
+        private RejectedBatchException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private static class Record {
+        private final byte kind;
+        private final Ticket ticket;
+
+        private Record(byte kind, Ticket ticket) {
+            this.kind = kind;
+            this.ticket = ticket;
+        }
+    }
+
+    private final DataBaseConfig dataBaseConfig;
+    private final int capacity;
+    private final int replayBatchSize;
+    private final File deadLetterFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final List<Ticket> recoveredOpenTickets = new ArrayList<>();
+    private final Thread syncer;
+    private final Thread replayer;
+
+    // all guarded by the buffer
+    private long appendedSequence;
+    private long syncedSequence;
+    private long replayedSequence;
+    private boolean open = true;
+
+    // An existing journal is recovered: its records not replayed yet are kept and replayed first
+    public TicketJournal(DataBaseConfig dataBaseConfig, File file, int capacity, int replayBatchSize) throws IOException {
+        this.dataBaseConfig = dataBaseConfig;
+        this.capacity = capacity;
+        this.replayBatchSize = replayBatchSize;
+        this.deadLetterFile = new File(file.getPath() + ".dead");
+        long size = (long) (capacity + 1) * RECORD_SIZE;
+        boolean existing = file.length() > 0;
+        if (existing && file.length() != size) {
+            throw new IllegalStateException("Ticket journal " + file + " was created with another capacity");
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!existing) {
+                buffer.putInt(0, MAGIC);
+                buffer.putLong(REPLAYED_SEQUENCE_OFFSET, 0);
+                buffer.force();
+            } else if (buffer.getInt(0) != MAGIC) {
+                throw new IllegalStateException("Not a ticket journal: " + file);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        recover();
+        this.syncer = new Thread(this::sync, "ticket-journal-sync");
+        this.replayer = new Thread(this::replay, "ticket-journal-replay");
+        syncer.setDaemon(true);
+        replayer.setDaemon(true);
+        syncer.start();
+        replayer.start();
+    }
+
+    // Tickets the records left by the previous run leave open, in the order they were opened
+    public List<Ticket> getRecoveredOpenTickets() {
+        return Collections.unmodifiableList(recoveredOpenTickets);
+    }
+
+    // The append methods return once the record is on disk, and fail when the journal is full
+    public void appendSave(Ticket ticket) throws InterruptedException {
+        append(SAVE, ticket);
+    }
+
+    public void appendUpdate(Ticket ticket) throws InterruptedException {
+        append(UPDATE, ticket);
+    }
+
+    // the replay deletes the saved ticket again
+    public void appendSaveCancel(Ticket ticket) throws InterruptedException {
+        append(SAVE_CANCEL, ticket);
+    }
+
+    // the replay opens the updated ticket again
+    public void appendUpdateCancel(Ticket ticket) throws InterruptedException {
+        append(UPDATE_CANCEL, ticket);
+    }
+
+    // Availability the records not replayed yet give to their spots, which the parking table does not show yet
+    public Map<Integer, Boolean> getPendingSpotAvailability() {
+        Map<Integer, Boolean> spotAvailability = new LinkedHashMap<>();
+        synchronized (buffer) {
+            for (long sequence = replayedSequence + 1; sequence <= appendedSequence; sequence++) {
+                Record record = read(sequence);
+                Boolean available = (record == null) ? null : spotAvailability(record);
+                if (available != null) {
+                    spotAvailability.put(record.ticket.getParkingSpot().getId(), available);
+                }
+            }
+        }
+        return spotAvailability;
+    }
+
+    public int getPendingCount() {
+        synchronized (buffer) {
+            return (int) (appendedSequence - replayedSequence);
+        }
+    }
+
+    // Waits until every record appended before this call has been replayed into the database
+    public void flush() throws InterruptedException {
+        synchronized (buffer) {
+            long target = appendedSequence;
+            while (open && replayedSequence < target) {
+                buffer.wait();
+            }
+        }
+    }
+
+    // Stops accepting writes, the records not replayed yet stay in the file for the next run
+    public void close() throws InterruptedException, IOException {
+        synchronized (buffer) {
+            open = false;
+            buffer.notifyAll();
+        }
+        syncer.join();
+        replayer.join();
+        buffer.force();
+        channel.close();
+    }
+
+    private void recover() {
+        replayedSequence = buffer.getLong(REPLAYED_SEQUENCE_OFFSET);
+        long sequence = replayedSequence;
+        Map<String, Ticket> openTickets = new LinkedHashMap<>();
+        // the records after the first torn or stale one were never acknowledged, they will be overwritten
+        while (sequence - replayedSequence < capacity) {
+            Record record = read(sequence + 1);
+            if (record == null) {
+                break;
+            }
+            Ticket ticket = record.ticket;
+            if (record.kind == UPDATE_CANCEL) {
+                ticket.setOutTime(null);
+                ticket.setPrice(0);
+                openTickets.put(ticket.getVehicleRegNumber(), ticket);
+            } else if (record.kind == SAVE && ticket.getOutTime() == null) {
+                openTickets.put(ticket.getVehicleRegNumber(), ticket);
+            } else {
+                openTickets.remove(ticket.getVehicleRegNumber());
+            }
+            sequence++;
+        }
+        recoveredOpenTickets.addAll(openTickets.values());
+        appendedSequence = sequence;
+        syncedSequence = sequence;
+        if (sequence > replayedSequence) {
+            logger.info("Recovered " + (sequence - replayedSequence) + " ticket write(s) to replay");
+        }
+    }
+
+    private void append(byte kind, Ticket ticket) throws InterruptedException {
+        synchronized (buffer) {
+            if (!open) {
+                throw new IllegalStateException("The ticket journal has been closed");
+            }
+            if (appendedSequence - replayedSequence >= capacity) {
+                throw new IllegalStateException("The ticket journal is full, " + capacity + " writes wait for the database");
+            }
+            long sequence = appendedSequence + 1;
+            write(sequence, encode(sequence, kind, ticket));
+            appendedSequence = sequence;
+            buffer.notifyAll();
+            while (syncedSequence < sequence) {
+                buffer.wait();
+            }
+        }
+    }
+
+    // group commit: one sync covers every record appended while the previous one was running
+    private void sync() {
+        try {
+            while (true) {
+                long target;
+                synchronized (buffer) {
+                    while (open && syncedSequence == appendedSequence) {
+                        buffer.wait();
+                    }
+                    if (syncedSequence == appendedSequence) {
+                        return;
+                    }
+                    target = appendedSequence;
+                }
+                buffer.force();
+                synchronized (buffer) {
+                    syncedSequence = target;
+                    buffer.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Ticket journal sync interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replay() {
+        long backoffMillis = RETRY_BACKOFF_MILLIS;
+        // after a refused batch the records go one at a time, until the refused one is found and passed
+        int batchSize = replayBatchSize;
+        int rejectedAttempts = 0;
+        try {
+            while (true) {
+                List<Record> batch = new ArrayList<>();
+                long last;
+                synchronized (buffer) {
+                    while (open && replayedSequence == syncedSequence) {
+                        buffer.wait();
+                    }
+                    if (!open) {
+                        return;
+                    }
+                    last = Math.min(syncedSequence, replayedSequence + batchSize);
+                    for (long sequence = replayedSequence + 1; sequence <= last; sequence++) {
+                        batch.add(read(sequence));
+                    }
+                }
+                try {
+                    apply(batch);
+                    backoffMillis = RETRY_BACKOFF_MILLIS;
+                    if (rejectedAttempts > 0) {
+                        batchSize = replayBatchSize;
+                        rejectedAttempts = 0;
+                    }
+                } catch (Exception e) {
+                    if (e instanceof RejectedBatchException) {
+                        batchSize = 1;
+                        if (batch.size() == 1 && ++rejectedAttempts >= MAX_REJECTED_ATTEMPTS) {
+                            deadLetter(last, e);
+                            batchSize = replayBatchSize;
+                            rejectedAttempts = 0;
+                            markReplayed(last);
+                            continue;
+                        }
+                    }
+                    logger.warn("Unable to replay ticket journal, retrying in " + backoffMillis + " ms", e);
+                    synchronized (buffer) {
+                        if (open) {
+                            buffer.wait(backoffMillis);
+                        }
+                    }
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS);
+                    continue;
+                }
+                markReplayed(last);
+            }
+        } catch (InterruptedException e) {
+            logger.error("Ticket journal replay interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void markReplayed(long last) {
+        synchronized (buffer) {
+            // synced with the next appends, a replay lost in a crash is applied again without effect
+            replayedSequence = last;
+            buffer.putLong(REPLAYED_SEQUENCE_OFFSET, last);
+            buffer.notifyAll();
+        }
+    }
+
+    // Copies the record as it is in the journal to the end of the dead-letter file, for it to be looked into by hand.
+    // The replay goes on even if the copy fails, the error log then being all that is left of the record.
+    private void deadLetter(long sequence, Exception cause) {
+        byte[] record = new byte[RECORD_SIZE];
+        Record refused;
+        synchronized (buffer) {
+            slot(sequence).get(record);
+            refused = read(sequence);
+        }
+        String description = (refused == null) ? "unreadable record" : "kind " + refused.kind + " of vehicle "
+                + refused.ticket.getVehicleRegNumber() + " parked in " + refused.ticket.getParkingSpot().getId()
+                + " at " + refused.ticket.getInTime();
+        logger.error("Ticket journal record " + sequence + " (" + description + ") refused " + MAX_REJECTED_ATTEMPTS
+                + " times by the database, moved to " + deadLetterFile, cause);
+        try (FileOutputStream deadLetters = new FileOutputStream(deadLetterFile, true)) {
+            deadLetters.write(record);
+            deadLetters.getFD().sync();
+        } catch (IOException e) {
+            logger.error("Unable to write ticket journal record " + sequence + " to " + deadLetterFile, e);
+        }
+    }
+
+    // consecutive records of the same kind go into one JDBC batch per table, all batches commit together
+    private void apply(List<Record> batch) throws ClassNotFoundException, SQLException {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            int i = 0;
+            while (i < batch.size()) {
+                byte kind = batch.get(i).kind;
+                int first = i;
+                while (i < batch.size() && batch.get(i).kind == kind) {
+                    i++;
+                }
+                List<Record> run = batch.subList(first, i);
+                applyTicketWrites(con, kind, run);
+                applySpotWrites(con, run);
+            }
+            con.commit();
+        } catch (SQLException | RuntimeException e) {
+            if (con == null) {
+                throw e;
+            }
+            con.rollback();
+            if (con.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                throw new RejectedBatchException(e);
+            }
+            throw e;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private void applyTicketWrites(Connection con, byte kind, List<Record> run) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(statementOf(kind));
+        try {
+            for (Record record : run) {
+                bind(ps, record);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+
+    private void applySpotWrites(Connection con, List<Record> run) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_PARKING_SPOT);
+        try {
+            boolean batched = false;
+            for (Record record : run) {
+                Boolean available = spotAvailability(record);
+                if (available != null) {
+                    ps.setBoolean(1, available);
+                    ps.setInt(2, record.ticket.getParkingSpot().getId());
+                    ps.addBatch();
+                    batched = true;
+                }
+            }
+            if (batched) {
+                ps.executeBatch();
+            }
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+
+    private static String statementOf(byte kind) {
+        switch (kind) {
+            case SAVE:
+                return DBConstants.SAVE_JOURNALED_TICKET;
+            case UPDATE:
+                return DBConstants.UPDATE_JOURNALED_TICKET;
+            case SAVE_CANCEL:
+                return DBConstants.DELETE_JOURNALED_TICKET;
+            case UPDATE_CANCEL:
+                return DBConstants.REOPEN_JOURNALED_TICKET;
+            default:
+                throw new IllegalStateException("Unknown ticket journal record kind " + kind);
+        }
+    }
+
+    // the availability the record gives to the spot of its ticket, null when it leaves the spot as it is
+    private static Boolean spotAvailability(Record record) {
+        boolean openTicket = record.ticket.getOutTime() == null;
+        switch (record.kind) {
+            case SAVE:
+                return openTicket ? Boolean.FALSE : null;
+            case SAVE_CANCEL:
+                return openTicket ? Boolean.TRUE : null;
+            case UPDATE:
+                return Boolean.TRUE;
+            default:
+                return Boolean.FALSE;
+        }
+    }
+
+    private void bind(PreparedStatement ps, Record record) throws SQLException {
+        Ticket ticket = record.ticket;
+        long inTime = ticket.getInTime().getTime();
+        Timestamp outTime = (ticket.getOutTime() == null) ? null : new Timestamp(ticket.getOutTime().getTime());
+        if (record.kind == SAVE) {
+            ps.setInt(1, ticket.getParkingSpot().getId());
+            ps.setString(2, ticket.getVehicleRegNumber());
+            ps.setDouble(3, ticket.getPrice());
+            ps.setTimestamp(4, new Timestamp(inTime));
+            ps.setTimestamp(5, outTime);
+            ps.setInt(6, dataBaseConfig.getGarageId());
+            ps.setString(7, ticket.getVehicleRegNumber());
+            ps.setTimestamp(8, new Timestamp(inTime - IN_TIME_TOLERANCE_MILLIS));
+            ps.setTimestamp(9, new Timestamp(inTime + IN_TIME_TOLERANCE_MILLIS));
+        } else if (record.kind == UPDATE) {
+            ps.setDouble(1, ticket.getPrice());
+            ps.setTimestamp(2, outTime);
+            ps.setString(3, ticket.getVehicleRegNumber());
+            ps.setTimestamp(4, new Timestamp(inTime - IN_TIME_TOLERANCE_MILLIS));
+            ps.setTimestamp(5, new Timestamp(inTime + IN_TIME_TOLERANCE_MILLIS));
+        } else {
+            ps.setString(1, ticket.getVehicleRegNumber());
+            ps.setTimestamp(2, new Timestamp(inTime - IN_TIME_TOLERANCE_MILLIS));
+            ps.setTimestamp(3, new Timestamp(inTime + IN_TIME_TOLERANCE_MILLIS));
+        }
+    }
+
+    private static byte[] encode(long sequence, byte kind, Ticket ticket) {
+        byte[] reg = ticket.getVehicleRegNumber().getBytes(StandardCharsets.UTF_8);
+        if (reg.length > MAX_REG_BYTES) {
+            throw new IllegalArgumentException("Vehicle registration number too long for the journal: " + ticket.getVehicleRegNumber());
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(0, sequence);
+        record.put(8, kind);
+        record.put(9, (byte) ticket.getParkingSpot().getParkingType().ordinal());
+        record.put(10, (byte) reg.length);
+        record.putInt(12, ticket.getParkingSpot().getId());
+        record.putLong(16, ticket.getInTime().getTime());
+        record.putLong(24, (ticket.getOutTime() == null) ? NO_TIME : ticket.getOutTime().getTime());
+        record.putDouble(32, ticket.getPrice());
+        for (int i = 0; i < reg.length; i++) {
+            record.put(40 + i, reg[i]);
+        }
+        record.putInt(CRC_OFFSET, checksum(record.array()));
+        return record.array();
+    }
+
+    // null when the slot does not hold an intact record of that sequence
+    private Record read(long sequence) {
+        ByteBuffer slot = slot(sequence);
+        byte[] bytes = new byte[RECORD_SIZE];
+        slot.get(bytes);
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        if (record.getLong(0) != sequence || record.getInt(CRC_OFFSET) != checksum(bytes)) {
+            return null;
+        }
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(record.getInt(12), ParkingType.values()[record.get(9)], false));
+        ticket.setVehicleRegNumber(new String(bytes, 40, record.get(10), StandardCharsets.UTF_8));
+        ticket.setInTime(new Date(record.getLong(16)));
+        long outTime = record.getLong(24);
+        ticket.setOutTime((outTime == NO_TIME) ? null : new Date(outTime));
+        ticket.setPrice(record.getDouble(32));
+        return new Record(record.get(8), ticket);
+    }
+
+    private void write(long sequence, byte[] record) {
+        slot(sequence).put(record);
+    }
+
+    private ByteBuffer slot(long sequence) {
+        ByteBuffer slot = buffer.duplicate();
+        // through Buffer, so the class still runs on Java 8 when compiled by a later JDK
+        ((Buffer) slot).position((int) (1 + (sequence - 1) % capacity) * RECORD_SIZE);
+        return slot;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, CRC_OFFSET);
+        return (int) crc.getValue();
+    }
+}
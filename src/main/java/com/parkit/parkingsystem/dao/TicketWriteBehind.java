@@ -0,0 +1,407 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Queues ticket inserts and updates and writes them from a single background thread in JDBC batches.
+// Writes are applied in the order they were queued, so the updates of a vehicle never overtake its insert.
+// A write that fails while the database is unreachable is retried, with the ones queued after it, until the database
+// takes it, the queue filling up meanwhile until the gates block on it. A write the database keeps refusing is moved
+// to a dead-letter file so it does not hold the others back. A write whose unit of work rolls back is dropped if still
+// queued, and undone by a further write otherwise.
+public class TicketWriteBehind {
+
+    private static final Logger logger = LogManager.getLogger("TicketWriteBehind");
+
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 30 * 1000;
+    private static final int MAX_REFUSALS = 5;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    // writes refused by the database, one line each: kind, garage, spot, vehicle, price, in-time and out-time
+    public static final String DEFAULT_DEAD_LETTER_FILE = "ticket-write-behind.dead";
+
+    private enum Kind {
+        SAVE, UPDATE, SAVE_CANCEL, UPDATE_CANCEL, FLUSH, CLOSE;
+
+        private boolean isMarker() {
+            return this == FLUSH || this == CLOSE;
+        }
+    }
+
+    private static class PendingWrite {
+        private final Kind kind;
+        private final int parkingNumber;
+        private final String vehicleRegNumber;
+        private final double price;
+        private final Timestamp inTime;
+        private final Timestamp outTime;
+        private final CountDownLatch flushed;
+        // taken by the writer before it writes, or by the rollback of the unit of work to drop the write
+        private final AtomicBoolean taken = new AtomicBoolean();
+        private int refusals;
+
+        // copies the ticket, the caller is free to change it once queued
+        private PendingWrite(Kind kind, Ticket ticket) {
+            this.kind = kind;
+            this.parkingNumber = ticket.getParkingSpot().getId();
+            this.vehicleRegNumber = ticket.getVehicleRegNumber();
+            this.price = ticket.getPrice();
+            this.inTime = (ticket.getInTime() == null) ? null : new Timestamp(ticket.getInTime().getTime());
+            this.outTime = (ticket.getOutTime() == null) ? null : new Timestamp(ticket.getOutTime().getTime());
+            this.flushed = null;
+        }
+
+        // undoes the given write, already written or being written
+        private PendingWrite(Kind kind, PendingWrite cancelled) {
+            this.kind = kind;
+            this.parkingNumber = cancelled.parkingNumber;
+            this.vehicleRegNumber = cancelled.vehicleRegNumber;
+            this.price = cancelled.price;
+            this.inTime = cancelled.inTime;
+            this.outTime = cancelled.outTime;
+            this.flushed = null;
+        }
+
+        private PendingWrite(Kind kind, CountDownLatch flushed) {
+            this.kind = kind;
+            this.parkingNumber = 0;
+            this.vehicleRegNumber = null;
+            this.price = 0;
+            this.inTime = null;
+            this.outTime = null;
+            this.flushed = flushed;
+        }
+    }
+
+    private final DataBaseConfig dataBaseConfig;
+    private final File deadLetterFile;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    // writes queued per vehicle and not written, dropped nor dead-lettered yet
+    private final ConcurrentMap<String, Integer> pendingWritesPerVehicle = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    public TicketWriteBehind(DataBaseConfig dataBaseConfig, int batchSize, long flushIntervalMillis, int capacity) {
+        this(dataBaseConfig, batchSize, flushIntervalMillis, capacity, new File(DEFAULT_DEAD_LETTER_FILE));
+    }
+
+    public TicketWriteBehind(DataBaseConfig dataBaseConfig, int batchSize, long flushIntervalMillis, int capacity, File deadLetterFile) {
+        this.dataBaseConfig = dataBaseConfig;
+        this.deadLetterFile = deadLetterFile;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::run, "ticket-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Both enqueue methods block while the queue is full, slowing the gates down to what the database can absorb.
+    // They return the action cancelling the write, to run if the unit of work of the caller rolls back.
+    public Runnable enqueueSave(Ticket ticket) throws InterruptedException {
+        return enqueue(new PendingWrite(Kind.SAVE, ticket), Kind.SAVE_CANCEL);
+    }
+
+    public Runnable enqueueUpdate(Ticket ticket) throws InterruptedException {
+        return enqueue(new PendingWrite(Kind.UPDATE, ticket), Kind.UPDATE_CANCEL);
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    // whether the database may not show all the writes queued for the vehicle yet
+    public boolean hasPendingWrites(String vehicleRegNumber) {
+        return pendingWritesPerVehicle.containsKey(vehicleRegNumber);
+    }
+
+    // Waits until every write queued before this call has reached the database
+    public void flush() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(1);
+        enqueue(new PendingWrite(Kind.FLUSH, flushed));
+        flushed.await();
+    }
+
+    // Stops accepting writes, then waits for the writer to drain the queue
+    public void close() throws InterruptedException {
+        accepting = false;
+        CountDownLatch flushed = new CountDownLatch(1);
+        queue.put(new PendingWrite(Kind.CLOSE, flushed));
+        flushed.await();
+        writer.join();
+    }
+
+    private void enqueue(PendingWrite pendingWrite) throws InterruptedException {
+        if (!accepting) {
+            throw new IllegalStateException("The ticket write-behind has been closed");
+        }
+        if (pendingWrite.kind.isMarker()) {
+            queue.put(pendingWrite);
+            return;
+        }
+        countPending(pendingWrite, 1);
+        try {
+            queue.put(pendingWrite);
+        } catch (InterruptedException e) {
+            countPending(pendingWrite, -1);
+            throw e;
+        }
+    }
+
+    private void countPending(PendingWrite pendingWrite, int delta) {
+        pendingWritesPerVehicle.compute(pendingWrite.vehicleRegNumber, (vehicleRegNumber, count) -> {
+            int pendingCount = ((count == null) ? 0 : count) + delta;
+            return (pendingCount == 0) ? null : pendingCount;
+        });
+    }
+
+    private Runnable enqueue(PendingWrite pendingWrite, Kind cancelKind) throws InterruptedException {
+        enqueue(pendingWrite);
+        return () -> {
+            if (pendingWrite.taken.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                enqueue(new PendingWrite(cancelKind, pendingWrite));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while cancelling the " + pendingWrite.kind + " of ticket for vehicle " + pendingWrite.vehicleRegNumber, e);
+            } catch (RuntimeException e) {
+                logger.error("Unable to cancel the " + pendingWrite.kind + " of ticket for vehicle " + pendingWrite.vehicleRegNumber, e);
+            }
+        };
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                logger.error("Ticket writer interrupted, " + batch.size() + " queued write(s) lost", e);
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                for (PendingWrite pendingWrite : batch) {
+                    if (pendingWrite.kind == Kind.CLOSE) {
+                        running = false;
+                    }
+                    if (pendingWrite.kind.isMarker()) {
+                        pendingWrite.flushed.countDown();
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    // Waits for the batch to fill up, at most one flush interval, and stops early on a flush request
+    private void fillBatch(List<PendingWrite> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize && !batch.get(batch.size() - 1).kind.isMarker()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void write(List<PendingWrite> batch) throws InterruptedException {
+        List<PendingWrite> pending = new ArrayList<>(batch.size());
+        for (PendingWrite pendingWrite : batch) {
+            // a write cancelled while queued is never written
+            if (pendingWrite.kind.isMarker()) {
+                continue;
+            }
+            if (pendingWrite.taken.compareAndSet(false, true)) {
+                pending.add(pendingWrite);
+            } else {
+                countPending(pendingWrite, -1);
+            }
+        }
+        long backoffMillis = RETRY_BACKOFF_MILLIS;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            try {
+                writeBatches(pending);
+                for (PendingWrite pendingWrite : pending) {
+                    countPending(pendingWrite, -1);
+                }
+                return;
+            } catch (Exception e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    // one write at a time, so the writes before a failing one are not held back with it
+                    logger.error("Unable to write ticket batch, writing one ticket at a time", e);
+                    pending = writeOneByOne(pending);
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    // a database refusing a write is reachable, the write is tried again soon towards its dead letter
+                    if (pending.get(0).refusals > 0) {
+                        backoffMillis = RETRY_BACKOFF_MILLIS;
+                    }
+                }
+                logger.warn("Error writing " + pending.size() + " ticket write(s), retrying in " + backoffMillis + " ms", e);
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(MAX_RETRY_BACKOFF_MILLIS, 2 * backoffMillis);
+            }
+        }
+    }
+
+    // consecutive writes of the same kind go into one JDBC batch, all batches commit together
+    private void writeBatches(List<PendingWrite> batch) throws ClassNotFoundException, SQLException {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            int i = 0;
+            while (i < batch.size()) {
+                Kind kind = batch.get(i).kind;
+                if (kind.isMarker()) {
+                    i++;
+                    continue;
+                }
+                PreparedStatement ps = con.prepareStatement(statementFor(kind));
+                for (; i < batch.size() && batch.get(i).kind == kind; i++) {
+                    bind(ps, batch.get(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                dataBaseConfig.closePreparedStatement(ps);
+            }
+            con.commit();
+        } catch (SQLException | RuntimeException e) {
+            if (con != null) {
+                con.rollback();
+            }
+            throw e;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    // Stops at the first write that fails, returns it with the writes after it, which must not overtake it.
+    // A write refused too many times by a reachable database is moved to the dead-letter file instead.
+    private List<PendingWrite> writeOneByOne(List<PendingWrite> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite pendingWrite = batch.get(i);
+            Connection con = null;
+            PreparedStatement ps = null;
+            try {
+                con = dataBaseConfig.getConnection();
+                ps = con.prepareStatement(statementFor(pendingWrite.kind));
+                bind(ps, pendingWrite);
+                if (ps.executeUpdate() == 0 && pendingWrite.kind == Kind.UPDATE) {
+                    logger.warn("No open ticket to update for vehicle " + pendingWrite.vehicleRegNumber);
+                }
+                countPending(pendingWrite, -1);
+            } catch (Exception ex) {
+                if (isRefusal(con) && ++pendingWrite.refusals >= MAX_REFUSALS) {
+                    deadLetter(pendingWrite, ex);
+                    countPending(pendingWrite, -1);
+                    continue;
+                }
+                logger.error("Error writing " + pendingWrite.kind + " of ticket for vehicle " + pendingWrite.vehicleRegNumber, ex);
+                return new ArrayList<>(batch.subList(i, batch.size()));
+            } finally {
+                dataBaseConfig.closePreparedStatement(ps);
+                dataBaseConfig.closeConnection(con);
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    // the database was reachable but refused the write, retrying it as it is will not help
+    private boolean isRefusal(Connection con) {
+        try {
+            return con != null && con.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void deadLetter(PendingWrite pendingWrite, Exception cause) {
+        String line = pendingWrite.kind + "," + dataBaseConfig.getGarageId() + "," + pendingWrite.parkingNumber + ","
+                + pendingWrite.vehicleRegNumber + "," + pendingWrite.price + "," + pendingWrite.inTime + "," + pendingWrite.outTime;
+        logger.error("Ticket write (" + line + ") refused " + MAX_REFUSALS + " times by the database, moved to " + deadLetterFile, cause);
+        try (FileOutputStream deadLetters = new FileOutputStream(deadLetterFile, true)) {
+            deadLetters.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            deadLetters.getFD().sync();
+        } catch (IOException e) {
+            logger.error("Unable to write ticket write (" + line + ") to " + deadLetterFile, e);
+        }
+    }
+
+    private static String statementFor(Kind kind) {
+        switch (kind) {
+            case SAVE:
+                return DBConstants.SAVE_TICKET;
+            case UPDATE:
+                return DBConstants.UPDATE_OPEN_TICKET;
+            case SAVE_CANCEL:
+                return DBConstants.DELETE_JOURNALED_TICKET;
+            case UPDATE_CANCEL:
+                return DBConstants.REOPEN_JOURNALED_TICKET;
+            default:
+                throw new IllegalStateException("Not a ticket write: " + kind);
+        }
+    }
+
+    private void bind(PreparedStatement ps, PendingWrite pendingWrite) throws SQLException {
+        if (pendingWrite.kind == Kind.SAVE) {
+            ps.setInt(1, pendingWrite.parkingNumber);
+            ps.setString(2, pendingWrite.vehicleRegNumber);
+            ps.setDouble(3, pendingWrite.price);
+            ps.setTimestamp(4, pendingWrite.inTime);
+            ps.setTimestamp(5, pendingWrite.outTime);
+            ps.setInt(6, dataBaseConfig.getGarageId());
+        } else if (pendingWrite.kind == Kind.UPDATE) {
+            // the ticket id is not known before its insert is written, the open ticket of the vehicle is targeted instead
+            ps.setDouble(1, pendingWrite.price);
+            ps.setTimestamp(2, pendingWrite.outTime);
+            ps.setString(3, pendingWrite.vehicleRegNumber);
+        } else {
+            // a cancelled write targets the ticket of the vehicle with its in-time, as a replayed journal record does
+            long inTime = pendingWrite.inTime.getTime();
+            ps.setString(1, pendingWrite.vehicleRegNumber);
+            ps.setTimestamp(2, new Timestamp(inTime - TicketJournal.IN_TIME_TOLERANCE_MILLIS));
+            ps.setTimestamp(3, new Timestamp(inTime + TicketJournal.IN_TIME_TOLERANCE_MILLIS));
+        }
+    }
+}
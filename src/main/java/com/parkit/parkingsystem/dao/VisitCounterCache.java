@@ -0,0 +1,117 @@
+package com.parkit.parkingsystem.dao;
+
+import com.parkit.parkingsystem.model.ParkingSpot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Number of completed visits per vehicle, for the most recently seen vehicles only.
+// Least recently used vehicles are evicted once the cache is full and get counted again from the database.
+// Each visit added moves a version, so a count read from the database while a visit of the same vehicle was
+// being added is not cached: it may or may not include that visit. The spot of the last visit is kept alongside,
+// for the allocation strategies sending regulars back to it.
+public class VisitCounterCache {
+
+    private final Map<String, Integer> visitCounts;
+    private final Map<String, ParkingSpot> lastSpots;
+    // version of the last visit added per vehicle, cached or not, for as many vehicles as the cache holds
+    private final Map<String, Long> addVersions;
+    private long version;
+    // the counts read before it may miss a visit whose version was evicted from addVersions
+    private long forgottenVersion;
+    private long hitCount;
+    private long missCount;
+
+    public VisitCounterCache(int maxSize) {
+        this.visitCounts = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.lastSpots = new LinkedHashMap<String, ParkingSpot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ParkingSpot> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.addVersions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > maxSize) {
+                    forgottenVersion = Math.max(forgottenVersion, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // to take before counting the visits of a vehicle in the database, then to give back to put
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // returns -1 when the vehicle is not cached
+    public synchronized int get(String vehicleRegNumber) {
+        Integer visitCount = visitCounts.get(vehicleRegNumber);
+        if (visitCount == null) {
+            missCount++;
+            return -1;
+        }
+        hitCount++;
+        return visitCount;
+    }
+
+    // for a count read with no visit of the vehicle being added meanwhile
+    public synchronized void put(String vehicleRegNumber, int visitCount) {
+        put(vehicleRegNumber, visitCount, version);
+    }
+
+    // Caches a count read from the database since the given version. It is dropped when a visit of the vehicle was
+    // added since then, and the cached value is kept if a concurrent load already put one. False when dropped.
+    public synchronized boolean put(String vehicleRegNumber, int visitCount, long readVersion) {
+        Long addVersion = addVersions.get(vehicleRegNumber);
+        if ((addVersion != null && addVersion > readVersion) || forgottenVersion > readVersion) {
+            return false;
+        }
+        visitCounts.putIfAbsent(vehicleRegNumber, visitCount);
+        return true;
+    }
+
+    // only counts already cached are moved, the others will be loaded with the new visit included
+    public synchronized void add(String vehicleRegNumber, int visits) {
+        addVersions.put(vehicleRegNumber, ++version);
+        visitCounts.computeIfPresent(vehicleRegNumber, (key, visitCount) -> visitCount + visits);
+    }
+
+    // spot of the last completed visit of the vehicle, null when not known
+    public synchronized ParkingSpot getLastSpot(String vehicleRegNumber) {
+        ParkingSpot lastSpot = lastSpots.get(vehicleRegNumber);
+        return (lastSpot == null) ? null : new ParkingSpot(lastSpot.getId(), lastSpot.getParkingType(), true);
+    }
+
+    public synchronized void setLastSpot(String vehicleRegNumber, ParkingSpot parkingSpot) {
+        lastSpots.put(vehicleRegNumber, new ParkingSpot(parkingSpot.getId(), parkingSpot.getParkingType(), true));
+    }
+
+    // the counts being read when the cache is cleared are dropped too
+    public synchronized void clear() {
+        visitCounts.clear();
+        lastSpots.clear();
+        addVersions.clear();
+        forgottenVersion = ++version;
+    }
+
+    public synchronized int size() {
+        return visitCounts.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
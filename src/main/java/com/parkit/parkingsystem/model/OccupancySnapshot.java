@@ -0,0 +1,31 @@
+package com.parkit.parkingsystem.model;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class OccupancySnapshot {
+    private final Map<ParkingType, Long> freeSpots;
+    private final Map<ParkingType, Long> totalSpots;
+    private final long takenAt;
+
+    public OccupancySnapshot(Map<ParkingType, Long> freeSpots, Map<ParkingType, Long> totalSpots, long takenAt) {
+        this.freeSpots = Collections.unmodifiableMap(new EnumMap<>(freeSpots));
+        this.totalSpots = Collections.unmodifiableMap(new EnumMap<>(totalSpots));
+        this.takenAt = takenAt;
+    }
+
+    public long getFreeSpots(ParkingType parkingType) {
+        return freeSpots.getOrDefault(parkingType, 0L);
+    }
+
+    public long getTotalSpots(ParkingType parkingType) {
+        return totalSpots.getOrDefault(parkingType, 0L);
+    }
+
+    public long getTakenAt() {
+        return takenAt;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.Date;
 
 public class Ticket {
     private int id;
+    private int garageId;
     private ParkingSpot parkingSpot;
     private String vehicleRegNumber;
     private double price;
@@ -19,6 +20,14 @@ public class Ticket {
         this.id = id;
     }
 
+    public int getGarageId() {
+        return garageId;
+    }
+
+    public void setGarageId(int garageId) {
+        this.garageId = garageId;
+    }
+
     public ParkingSpot getParkingSpot() {
         return parkingSpot;
     }
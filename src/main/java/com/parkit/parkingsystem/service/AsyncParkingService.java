@@ -0,0 +1,72 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Ticket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking variant of the ParkingService workflows: each call returns a future at once, completed from a bounded
+// pool of I/O threads, so a caller can have many vehicles' database round-trips in flight. A workflow runs on one
+// I/O thread from start to end, as its unit of work is bound to the thread. When every I/O thread is busy and the
+// queue is full, the future fails with a RejectedExecutionException instead of blocking the caller.
+public class AsyncParkingService {
+
+    private final ParkingService parkingService;
+    private final ThreadPoolExecutor ioExecutor;
+
+    private interface Workflow {
+        Ticket run() throws Exception;
+    }
+
+    public AsyncParkingService(ParkingService parkingService, int ioThreads, int queueCapacity) {
+        this.parkingService = parkingService;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.ioExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "parking-io-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public CompletableFuture<Ticket> processIncomingVehicle(ParkingType parkingType, String vehicleRegNumber) {
+        return submit(() -> parkingService.processIncomingVehicle(parkingType, vehicleRegNumber));
+    }
+
+    public CompletableFuture<Ticket> processExitingVehicle(String vehicleRegNumber) {
+        return submit(() -> parkingService.processExitingVehicle(vehicleRegNumber));
+    }
+
+    public CompletableFuture<Ticket> quoteFare(String vehicleRegNumber) {
+        return submit(() -> parkingService.quoteFare(vehicleRegNumber));
+    }
+
+    // lets the workflows already accepted finish, waiting at most the given delay
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        ioExecutor.shutdown();
+        ioExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The stages a caller chains on the future run on the I/O thread, or on the caller's if already complete
+    private CompletableFuture<Ticket> submit(Workflow workflow) {
+        CompletableFuture<Ticket> result = new CompletableFuture<>();
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    result.complete(workflow.run());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -1,45 +1,49 @@
 package com.parkit.parkingsystem.service;
 
-import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.model.Ticket;
 
 public class FareCalculatorService {
 
+    private final TariffEngine tariffEngine;
+
+    // prices with the rates of the Fare constants
+    public FareCalculatorService() {
+        this(new TariffEngine());
+    }
+
+    public FareCalculatorService(TariffEngine tariffEngine) {
+        this.tariffEngine = tariffEngine;
+    }
+
     public void calculateFare(Ticket ticket){
         calculateFare(ticket, false);
     }
 
     public void calculateFare(Ticket ticket, Boolean discount) {
         if( (ticket.getOutTime() == null) || (ticket.getOutTime().before(ticket.getInTime())) ){
-            throw new IllegalArgumentException("Out time provided is incorrect:"+ticket.getOutTime().toString());
+            throw new IllegalArgumentException("Out time provided is incorrect:"+ticket.getOutTime());
         }
 
         if (ticket.getParkingSpot() == null || ticket.getParkingSpot().getParkingType() == null) {
             throw new IllegalArgumentException("The Parking Type is null");
         }
 
+        long priceCents = calculateFareCents(ticket.getInTime().getTime(), ticket.getOutTime().getTime(),
+                ticket.getParkingSpot().getParkingType(), discount);
+        ticket.setPrice(priceCents / 100.0);
+    }
 
-        double inHour = (double) ticket.getInTime().getTime() / (60 * 60 * 1000);
-        double outHour = (double) ticket.getOutTime().getTime() / (60 * 60 * 1000);
-        double duration = outHour - inHour;
-
-        if (duration <= 0.5) {
-            ticket.setPrice(0);
-            return;
+    // Price in cents, rounded half up to the nearest cent, with the current tariff.
+    // Allocates nothing, except for the exception of an invalid call.
+    public long calculateFareCents(long inTimeMillis, long outTimeMillis, ParkingType parkingType, boolean discount) {
+        if (outTimeMillis < inTimeMillis) {
+            throw new IllegalArgumentException("Out time provided is incorrect");
         }
-
-        switch (ticket.getParkingSpot().getParkingType()){
-            case CAR: {
-                if (!discount) ticket.setPrice(duration * Fare.CAR_RATE_PER_HOUR);
-                else ticket.setPrice(Fare.DISCOUNT * (duration * Fare.CAR_RATE_PER_HOUR));
-                break;
-            }
-            case BIKE: {
-                if (!discount) ticket.setPrice(duration * Fare.BIKE_RATE_PER_HOUR);
-                else ticket.setPrice(Fare.DISCOUNT * (duration * Fare.BIKE_RATE_PER_HOUR));
-                break;
-            }
-            default: throw new IllegalArgumentException("Unkown Parking Type");
+        if (parkingType == null) {
+            throw new IllegalArgumentException("The Parking Type is null");
         }
+
+        return tariffEngine.getTariff().priceCents(inTimeMillis, outTimeMillis, parkingType, discount);
     }
-}
\ No newline at end of file
+}
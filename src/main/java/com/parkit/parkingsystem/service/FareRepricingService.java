@@ -0,0 +1,190 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Recomputes the fare of closed tickets with the current rates, for rate changes and billing disputes.
+// Tickets are streamed from the database one chunk at a time: the fares of a chunk are computed in parallel,
+// then written back in one JDBC batch while the next chunk is read, so at most two chunks are held in memory.
+public class FareRepricingService {
+
+    private static final Logger logger = LogManager.getLogger("FareRepricingService");
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final Date END_OF_TIME = Timestamp.valueOf("9999-12-31 23:59:59");
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    public FareCalculatorService fareCalculatorService = new FareCalculatorService();
+
+    private final int chunkSize;
+    private final int parallelism;
+
+    public static class RepricingResult {
+        private final long scannedCount;
+        private final long updatedCount;
+
+        private RepricingResult(long scannedCount, long updatedCount) {
+            this.scannedCount = scannedCount;
+            this.updatedCount = updatedCount;
+        }
+
+        public long getScannedCount() {
+            return scannedCount;
+        }
+
+        // tickets whose fare changed, the others are not written
+        public long getUpdatedCount() {
+            return updatedCount;
+        }
+    }
+
+    private static class RepricedTicket {
+        private final int id;
+        private final long inTime;
+        private final long outTime;
+        private final ParkingType parkingType;
+        private final boolean discount;
+        private final double previousPrice;
+        private double price;
+
+        private RepricedTicket(int id, long inTime, long outTime, ParkingType parkingType, boolean discount, double previousPrice) {
+            this.id = id;
+            this.inTime = inTime;
+            this.outTime = outTime;
+            this.parkingType = parkingType;
+            this.discount = discount;
+            this.previousPrice = previousPrice;
+        }
+    }
+
+    public FareRepricingService(int chunkSize, int parallelism) {
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    public RepricingResult repriceAll() throws Exception {
+        return reprice(new Date(0), END_OF_TIME);
+    }
+
+    // Reprices the tickets closed from the first date included to the second one excluded
+    public RepricingResult reprice(Date from, Date to) throws Exception {
+        ForkJoinPool computePool = new ForkJoinPool(parallelism);
+        ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "fare-repricing-writer"));
+        Connection readConnection = null;
+        Connection writeConnection = null;
+        long scannedCount = 0;
+        long updatedCount = 0;
+        try {
+            readConnection = dataBaseConfig.getConnection();
+            writeConnection = dataBaseConfig.getConnection();
+            writeConnection.setAutoCommit(false);
+            Connection chunkConnection = writeConnection;
+
+            PreparedStatement ps = readConnection.prepareStatement(DBConstants.GET_CLOSED_TICKETS_FOR_REPRICING,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(chunkSize);
+            ps.setTimestamp(1, new Timestamp(from.getTime()));
+            ps.setTimestamp(2, new Timestamp(to.getTime()));
+            ResultSet rs = ps.executeQuery();
+
+            Future<Integer> pendingWrite = null;
+            List<RepricedTicket> chunk = new ArrayList<>(chunkSize);
+            boolean more = true;
+            while (more) {
+                more = rs.next();
+                if (more) {
+                    chunk.add(read(rs));
+                    scannedCount++;
+                }
+                if (chunk.size() == chunkSize || (!more && !chunk.isEmpty())) {
+                    List<RepricedTicket> computed = chunk;
+                    computePool.submit(() -> computed.parallelStream().forEach(this::computeFare)).get();
+                    if (pendingWrite != null) {
+                        updatedCount += pendingWrite.get();
+                    }
+                    pendingWrite = writer.submit(() -> write(chunkConnection, computed));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (pendingWrite != null) {
+                updatedCount += pendingWrite.get();
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            logger.info("Repriced " + updatedCount + " of " + scannedCount + " closed tickets");
+            return new RepricingResult(scannedCount, updatedCount);
+        } catch (ExecutionException e) {
+            // chunks already written stay repriced, running it again finishes the job
+            logger.error("Repricing stopped after " + scannedCount + " tickets", e.getCause());
+            throw e;
+        } finally {
+            writer.shutdownNow();
+            computePool.shutdownNow();
+            dataBaseConfig.closeConnection(readConnection);
+            dataBaseConfig.closeConnection(writeConnection);
+        }
+    }
+
+    private static RepricedTicket read(ResultSet rs) throws SQLException {
+        return new RepricedTicket(rs.getInt(1), rs.getTimestamp(3).getTime(), rs.getTimestamp(4).getTime(),
+                ParkingType.valueOf(rs.getString(5)), rs.getBoolean(6), rs.getDouble(2));
+    }
+
+    private void computeFare(RepricedTicket repricedTicket) {
+        repricedTicket.price = fareCalculatorService.calculateFareCents(repricedTicket.inTime, repricedTicket.outTime,
+                repricedTicket.parkingType, repricedTicket.discount) / 100.0;
+    }
+
+    // one batch and one commit per chunk, the hourly summary moving with the prices, returns the number of updated tickets
+    private int write(Connection con, List<RepricedTicket> chunk) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(DBConstants.UPDATE_TICKET_PRICE);
+        PreparedStatement summaryPs = null;
+        int updatedCount = 0;
+        try {
+            summaryPs = con.prepareStatement(DBConstants.ADD_REPRICING_TO_HOURLY_SUMMARY);
+            for (RepricedTicket repricedTicket : chunk) {
+                if (repricedTicket.price != repricedTicket.previousPrice) {
+                    ps.setDouble(1, repricedTicket.price);
+                    ps.setInt(2, repricedTicket.id);
+                    ps.addBatch();
+                    // in cents rounded as the summary counts them
+                    summaryPs.setLong(1, Math.round(repricedTicket.price * 100) - Math.round(repricedTicket.previousPrice * 100));
+                    summaryPs.setTimestamp(2, new Timestamp(Math.floorDiv(repricedTicket.outTime, HOUR) * HOUR));
+                    summaryPs.setString(3, repricedTicket.parkingType.toString());
+                    summaryPs.addBatch();
+                    updatedCount++;
+                }
+            }
+            if (updatedCount > 0) {
+                ps.executeBatch();
+                summaryPs.executeBatch();
+            }
+            con.commit();
+            return updatedCount;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            dataBaseConfig.closePreparedStatement(summaryPs);
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+}
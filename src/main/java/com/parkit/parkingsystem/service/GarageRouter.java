@@ -0,0 +1,175 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.GarageDataBaseConfig;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+// Routes each garage to its own database, with its own connection pool, availability index and ticket caches,
+// so the gates of a busy garage only ever wait on that garage's resources. Queries over every garage run on all
+// of them in parallel, a garage that fails or does not answer in time being left out of the result.
+public class GarageRouter {
+
+    private static final Logger logger = LogManager.getLogger("GarageRouter");
+
+    // comma separated ids of the garages served, such as "1,2,3". Garage 1 keeps the default database.
+    public static final String GARAGES_PROPERTY = "parking.garages";
+
+    private static final long IDLE_AGGREGATE_THREAD_MILLIS = 60 * 1000;
+
+    private final Map<Integer, Garage> garages;
+    private final ThreadPoolExecutor aggregateExecutor;
+    private final long aggregateTimeoutMillis;
+
+    public static class Garage {
+        private final DataBaseConfig dataBaseConfig;
+        private final ParkingSpotDAO parkingSpotDAO;
+        private final TicketDAO ticketDAO;
+        private final ParkingService parkingService;
+        private final HourlyTicketAggregates hourlyTicketAggregates;
+
+        private Garage(DataBaseConfig dataBaseConfig) {
+            this.dataBaseConfig = dataBaseConfig;
+            this.parkingSpotDAO = new ParkingSpotDAO();
+            parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+            this.ticketDAO = new TicketDAO();
+            ticketDAO.dataBaseConfig = dataBaseConfig;
+            this.parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+            parkingService.dataBaseConfig = dataBaseConfig;
+            this.hourlyTicketAggregates = new HourlyTicketAggregates();
+            hourlyTicketAggregates.dataBaseConfig = dataBaseConfig;
+            parkingService.hourlyTicketAggregates = hourlyTicketAggregates;
+        }
+
+        public int getId() {
+            return dataBaseConfig.getGarageId();
+        }
+
+        public DataBaseConfig getDataBaseConfig() {
+            return dataBaseConfig;
+        }
+
+        public ParkingSpotDAO getParkingSpotDAO() {
+            return parkingSpotDAO;
+        }
+
+        public TicketDAO getTicketDAO() {
+            return ticketDAO;
+        }
+
+        public ParkingService getParkingService() {
+            return parkingService;
+        }
+
+        public HourlyTicketAggregates getHourlyTicketAggregates() {
+            return hourlyTicketAggregates;
+        }
+    }
+
+    public GarageRouter(Collection<Integer> garageIds, IntFunction<DataBaseConfig> dataBaseConfigs, long aggregateTimeoutMillis) {
+        Map<Integer, Garage> garagesById = new TreeMap<>();
+        for (int garageId : garageIds) {
+            garagesById.put(garageId, new Garage(dataBaseConfigs.apply(garageId)));
+        }
+        this.garages = Collections.unmodifiableMap(garagesById);
+        this.aggregateTimeoutMillis = aggregateTimeoutMillis;
+        // a thread per garage so none waits for another, stopped when no query runs
+        AtomicInteger threadNumber = new AtomicInteger();
+        int threads = Math.max(1, garages.size());
+        this.aggregateExecutor = new ThreadPoolExecutor(threads, threads, IDLE_AGGREGATE_THREAD_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "garage-aggregate-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        aggregateExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // The garages given with -Dparking.garages, or the default garage alone
+    public static GarageRouter fromSystemProperty(long aggregateTimeoutMillis) {
+        List<Integer> garageIds = new ArrayList<>();
+        String garages = System.getProperty(GARAGES_PROPERTY);
+        if (garages == null) {
+            garageIds.add(DataBaseConfig.DEFAULT_GARAGE_ID);
+        } else {
+            for (String garageId : garages.split(",")) {
+                garageIds.add(Integer.parseInt(garageId.trim()));
+            }
+        }
+        return new GarageRouter(garageIds, garageId -> (garageId == DataBaseConfig.DEFAULT_GARAGE_ID)
+                ? new DataBaseConfig() : new GarageDataBaseConfig(garageId), aggregateTimeoutMillis);
+    }
+
+    public Collection<Garage> getGarages() {
+        return garages.values();
+    }
+
+    // null for a garage this router does not serve
+    public Garage getGarage(int garageId) {
+        return garages.get(garageId);
+    }
+
+    public Map<Integer, OccupancySnapshot> getOccupancySnapshots() throws InterruptedException {
+        return queryEachGarage("occupancy", garage -> garage.getParkingSpotDAO().getOccupancySnapshot());
+    }
+
+    // revenue of the tickets closed during the hours from the first date to the second, per garage,
+    // read from the hourly aggregates
+    public Map<Integer, Double> getRevenue(Date from, Date to) throws InterruptedException {
+        return queryEachGarage("revenue", garage -> garage.getHourlyTicketAggregates().getRevenue(from, to));
+    }
+
+    public void shutdown() {
+        aggregateExecutor.shutdownNow();
+    }
+
+    // A null result means the DAO already logged its failure
+    private <T> Map<Integer, T> queryEachGarage(String queryName, Function<Garage, T> query) throws InterruptedException {
+        List<Callable<T>> tasks = new ArrayList<>();
+        for (Garage garage : garages.values()) {
+            tasks.add(() -> query.apply(garage));
+        }
+        // the queries still running at the deadline are cancelled
+        List<Future<T>> futures = aggregateExecutor.invokeAll(tasks, aggregateTimeoutMillis, TimeUnit.MILLISECONDS);
+        Map<Integer, T> results = new TreeMap<>();
+        Iterator<Integer> garageIds = garages.keySet().iterator();
+        for (Future<T> future : futures) {
+            int garageId = garageIds.next();
+            if (future.isCancelled()) {
+                logger.warn("Garage " + garageId + " did not answer the " + queryName + " query within " + aggregateTimeoutMillis + " ms");
+                continue;
+            }
+            try {
+                T result = future.get();
+                if (result != null) {
+                    results.put(garageId, result);
+                }
+            } catch (ExecutionException e) {
+                logger.error("Error querying " + queryName + " of garage " + garageId, e.getCause());
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,193 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Replays a file of gate events through the entry and exit workflows, at the time of each event instead of the
+// current time: to backfill the tickets of offline gates, or to load test with a day of traffic. One event per line:
+//   ABC123,CAR,ENTRY,2024-05-02T08:15:00      the time as an ISO local date-time
+//   ABC123,CAR,EXIT,1714637700000             or in epoch milliseconds
+// Lines starting with # are skipped. The file is streamed: events are dealt to lanes by vehicle, each lane
+// processing the events of its vehicles in file order from a bounded queue, so memory does not grow with the file.
+public class GateEventReplay {
+
+    private static final Logger logger = LogManager.getLogger("GateEventReplay");
+
+    private static final int QUEUED_EVENTS_PER_LANE = 1024;
+    private static final long PROGRESS_LOG_INTERVAL = 100000;
+
+    private static final GateEvent END_OF_EVENTS = new GateEvent(0, null, null, false, 0);
+
+    private final ParkingService parkingService;
+    private final int laneCount;
+
+    public static class ReplayResult {
+        private final long eventCount;
+        private final long failedCount;
+        private final long elapsedMillis;
+
+        private ReplayResult(long eventCount, long failedCount, long elapsedMillis) {
+            this.eventCount = eventCount;
+            this.failedCount = failedCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        // every line read, the failed ones included
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        // unreadable lines and events refused by the workflows, such as the exit of a vehicle never parked
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getEventsPerSecond() {
+            return eventCount * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return eventCount + " events replayed in " + elapsedMillis + " ms (" + getEventsPerSecond() + " events/s), "
+                    + failedCount + " failed";
+        }
+    }
+
+    private static class GateEvent {
+        private final long lineNumber;
+        private final String vehicleRegNumber;
+        private final ParkingType parkingType;
+        private final boolean entry;
+        private final long time;
+
+        private GateEvent(long lineNumber, String vehicleRegNumber, ParkingType parkingType, boolean entry, long time) {
+            this.lineNumber = lineNumber;
+            this.vehicleRegNumber = vehicleRegNumber;
+            this.parkingType = parkingType;
+            this.entry = entry;
+            this.time = time;
+        }
+    }
+
+    public GateEventReplay(ParkingService parkingService, int laneCount) {
+        this.parkingService = parkingService;
+        this.laneCount = laneCount;
+    }
+
+    public ReplayResult replay(File file) throws IOException, InterruptedException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return replay(reader);
+        }
+    }
+
+    public ReplayResult replay(Reader reader) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        LongAdder failedCount = new LongAdder();
+        List<BlockingQueue<GateEvent>> queues = new ArrayList<>();
+        List<Thread> lanes = new ArrayList<>();
+        for (int lane = 0; lane < laneCount; lane++) {
+            BlockingQueue<GateEvent> queue = new ArrayBlockingQueue<>(QUEUED_EVENTS_PER_LANE);
+            Thread thread = new Thread(() -> runLane(queue, failedCount), "gate-replay-" + queues.size());
+            queues.add(queue);
+            lanes.add(thread);
+            thread.start();
+        }
+        long eventCount = 0;
+        try {
+            BufferedReader lines = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+            long lineNumber = 0;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                eventCount++;
+                GateEvent event;
+                try {
+                    event = parse(lineNumber, line);
+                } catch (RuntimeException e) {
+                    failedCount.increment();
+                    logger.warn("Line " + lineNumber + " skipped: " + e.getMessage());
+                    continue;
+                }
+                // a vehicle always goes to the same lane, so its entry is processed before its exit
+                queues.get(Math.floorMod(event.vehicleRegNumber.hashCode(), laneCount)).put(event);
+                if (eventCount % PROGRESS_LOG_INTERVAL == 0) {
+                    logger.info(eventCount + " events read");
+                }
+            }
+        } finally {
+            for (BlockingQueue<GateEvent> queue : queues) {
+                queue.put(END_OF_EVENTS);
+            }
+            for (Thread lane : lanes) {
+                lane.join();
+            }
+        }
+        ReplayResult result = new ReplayResult(eventCount, failedCount.sum(), System.currentTimeMillis() - start);
+        logger.info(result.toString());
+        return result;
+    }
+
+    private void runLane(BlockingQueue<GateEvent> queue, LongAdder failedCount) {
+        try {
+            GateEvent event;
+            while ((event = queue.take()) != END_OF_EVENTS) {
+                try {
+                    if (event.entry) {
+                        parkingService.processIncomingVehicle(event.parkingType, event.vehicleRegNumber, new Date(event.time));
+                    } else {
+                        parkingService.processExitingVehicle(event.vehicleRegNumber, new Date(event.time));
+                    }
+                } catch (Exception e) {
+                    failedCount.increment();
+                    logger.warn("Line " + event.lineNumber + " failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Gate event replay interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static GateEvent parse(long lineNumber, String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("expected registration number, type, ENTRY or EXIT, and time");
+        }
+        String vehicleRegNumber = fields[0].trim();
+        if (vehicleRegNumber.isEmpty()) {
+            throw new IllegalArgumentException("Invalid vehicle registration number");
+        }
+        ParkingType parkingType = ParkingType.valueOf(fields[1].trim().toUpperCase());
+        String direction = fields[2].trim().toUpperCase();
+        if (!"ENTRY".equals(direction) && !"EXIT".equals(direction)) {
+            throw new IllegalArgumentException("Unknown direction: " + fields[2]);
+        }
+        String time = fields[3].trim();
+        long timeMillis = time.chars().allMatch(Character::isDigit) ? Long.parseLong(time)
+                : LocalDateTime.parse(time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new GateEvent(lineNumber, vehicleRegNumber, parkingType, "ENTRY".equals(direction), timeMillis);
+    }
+}
@@ -0,0 +1,234 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the entry and exit lanes over HTTP, each request on a thread of a bounded worker pool:
+//   POST /entry?type=CAR&reg=ABCDEF   parks the vehicle and answers with its spot and in-time
+//   POST /exit?reg=ABCDEF             releases the spot and answers with the fare
+//   GET  /occupancy                   free and total spots per type, from memory, for display boards
+//   GET  /metrics                     latency histograms and counters since the start, as a text table
+// With several garages, the lanes add garage=<id> to the entry, exit and occupancy requests, the default garage
+// being served otherwise.
+// Answers are "key=value" lines. A request the garage cannot serve, such as an entry into a full garage or the exit
+// of a vehicle without a ticket, is answered with 409 and the reason, any other failure with 500. When every worker
+// is busy and the queue is full, the accepting thread runs the request itself, which stops it from taking new ones
+// until done.
+public class GateServer {
+
+    private static final Logger logger = LogManager.getLogger("GateServer");
+
+    private static final int QUEUED_REQUESTS_PER_WORKER = 8;
+
+    private final Map<Integer, ParkingService> parkingServices;
+    private final HttpServer httpServer;
+    private final ThreadPoolExecutor workers;
+
+    public GateServer(ParkingService parkingService, int port, int workerCount) throws IOException {
+        this(Collections.singletonMap(DataBaseConfig.DEFAULT_GARAGE_ID, parkingService), port, workerCount);
+    }
+
+    public GateServer(GarageRouter garageRouter, int port, int workerCount) throws IOException {
+        this(parkingServicesOf(garageRouter), port, workerCount);
+    }
+
+    private GateServer(Map<Integer, ParkingService> parkingServices, int port, int workerCount) throws IOException {
+        this.parkingServices = parkingServices;
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerCount * QUEUED_REQUESTS_PER_WORKER),
+                runnable -> new Thread(runnable, "gate-worker-" + workerNumber.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.setExecutor(workers);
+        httpServer.createContext("/entry", new GateHandler(true));
+        httpServer.createContext("/exit", new GateHandler(false));
+        httpServer.createContext("/occupancy", this::handleOccupancy);
+        httpServer.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        httpServer.start();
+        logger.info("Gate server listening on port " + getPort());
+    }
+
+    // lets the requests in progress finish, waiting at most the given delay
+    public void stop(int delaySeconds) throws InterruptedException {
+        httpServer.stop(delaySeconds);
+        workers.shutdown();
+        workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    private static Map<Integer, ParkingService> parkingServicesOf(GarageRouter garageRouter) {
+        Map<Integer, ParkingService> parkingServices = new HashMap<>();
+        for (GarageRouter.Garage garage : garageRouter.getGarages()) {
+            parkingServices.put(garage.getId(), garage.getParkingService());
+        }
+        return parkingServices;
+    }
+
+    // null when the garage is not served here, or not a number
+    private ParkingService parkingServiceOf(Map<String, String> parameters) {
+        String garage = parameters.get("garage");
+        try {
+            return parkingServices.get((garage == null) ? DataBaseConfig.DEFAULT_GARAGE_ID : Integer.parseInt(garage));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private class GateHandler implements HttpHandler {
+
+        private final boolean entry;
+
+        private GateHandler(boolean entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    send(exchange, 405, "error=Only POST is supported");
+                    return;
+                }
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                ParkingService parkingService = parkingServiceOf(parameters);
+                if (parkingService == null) {
+                    send(exchange, 404, "error=Unknown garage");
+                    return;
+                }
+                String vehicleRegNumber = parameters.get("reg");
+                if (vehicleRegNumber == null || vehicleRegNumber.trim().length() == 0) {
+                    send(exchange, 400, "error=Invalid vehicle registration number");
+                    return;
+                }
+                Ticket ticket;
+                if (entry) {
+                    ParkingType parkingType = parseParkingType(parameters.get("type"));
+                    if (parkingType == null) {
+                        send(exchange, 400, "error=Invalid parking type");
+                        return;
+                    }
+                    ticket = parkingService.processIncomingVehicle(parkingType, vehicleRegNumber);
+                    send(exchange, 200, "spot=" + ticket.getParkingSpot().getId() + "\n"
+                            + "inTime=" + ticket.getInTime().getTime());
+                } else {
+                    ticket = parkingService.processExitingVehicle(vehicleRegNumber);
+                    send(exchange, 200, "fare=" + ticket.getPrice() + "\n"
+                            + "outTime=" + ticket.getOutTime().getTime());
+                }
+            } catch (ParkingService.ConflictException e) {
+                logger.info("Refused " + (entry ? "incoming" : "exiting") + " vehicle: " + e.getMessage());
+                send(exchange, 409, "error=" + e.getMessage());
+            } catch (Exception e) {
+                // the cause stays in the server log, the lane only learns the request failed
+                logger.error("Unable to process " + (entry ? "incoming" : "exiting") + " vehicle", e);
+                send(exchange, 500, "error=Internal error");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void handleOccupancy(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "error=Only GET is supported");
+                return;
+            }
+            ParkingService parkingService = parkingServiceOf(parseQuery(exchange.getRequestURI().getRawQuery()));
+            if (parkingService == null) {
+                send(exchange, 404, "error=Unknown garage");
+                return;
+            }
+            OccupancySnapshot occupancySnapshot = parkingService.getOccupancySnapshot();
+            if (occupancySnapshot == null) {
+                send(exchange, 503, "error=Occupancy not available");
+                return;
+            }
+            StringBuilder body = new StringBuilder();
+            for (ParkingType parkingType : ParkingType.values()) {
+                body.append(parkingType).append(".free=").append(occupancySnapshot.getFreeSpots(parkingType)).append('\n');
+                body.append(parkingType).append(".total=").append(occupancySnapshot.getTotalSpots(parkingType)).append('\n');
+            }
+            body.append("takenAt=").append(occupancySnapshot.getTakenAt());
+            send(exchange, 200, body.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "error=Only GET is supported");
+                return;
+            }
+            send(exchange, 200, Metrics.dump());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static ParkingType parseParkingType(String type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return ParkingType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
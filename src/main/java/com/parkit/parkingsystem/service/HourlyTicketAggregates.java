@@ -0,0 +1,340 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Ticket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Revenue, ticket counts and stay histograms of the closed tickets per hour of exit and parking type, added to as
+// each exit is committed, so totals are read from a few rows per hour instead of scanning the tickets.
+// Hours are kept in memory until they are over, then added to ticket_hourly_summary together with a checkpoint:
+// every ticket closed before the checkpoint is in the table. On start the tickets closed since the checkpoint are
+// read again, which also builds the whole summary the first time.
+public class HourlyTicketAggregates {
+
+    private static final Logger logger = LogManager.getLogger("HourlyTicketAggregates");
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final Date END_OF_TIME = Timestamp.valueOf("9999-12-31 23:59:59");
+    private static final int REBUILD_FETCH_SIZE = 1000;
+    private static final ParkingType[] PARKING_TYPES = ParkingType.values();
+
+    // stays are counted under each bound, the last slot holds the longer ones
+    private static final long[] STAY_BOUNDS_MILLIS = {30 * 60 * 1000, HOUR, 2 * HOUR, 4 * HOUR, 8 * HOUR, 24 * HOUR};
+
+    // slots of the counters of an hour and type, in the order of the summary columns
+    private static final int TICKET_COUNT = 0;
+    private static final int REVENUE_CENTS = 1;
+    private static final int STAY_MILLIS = 2;
+    private static final int FIRST_STAY_COUNT = 3;
+    private static final int COUNTER_COUNT = FIRST_STAY_COUNT + STAY_BOUNDS_MILLIS.length + 1;
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    // hours not flushed yet, by start time. An hour is updated and removed through the map only, so a ticket of an
+    // hour being flushed goes to a new entry flushed the next time.
+    private final ConcurrentMap<Long, long[][]> pendingHours = new ConcurrentHashMap<>();
+
+    // summaries wait for a flush in progress, so they see its hours either in memory or in the table
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    private ScheduledExecutorService flushExecutor;
+
+    public static class Summary {
+        private final long[] counters;
+
+        private Summary(long[] counters) {
+            this.counters = counters;
+        }
+
+        public long getTicketCount() {
+            return counters[TICKET_COUNT];
+        }
+
+        public double getRevenue() {
+            return counters[REVENUE_CENTS] / 100.0;
+        }
+
+        // 0 when no ticket was closed
+        public long getAverageStayMillis() {
+            return (counters[TICKET_COUNT] == 0) ? 0 : counters[STAY_MILLIS] / counters[TICKET_COUNT];
+        }
+
+        // stays under 30 min, 1, 2, 4, 8 and 24 hours, then longer
+        public long[] getStayHistogram() {
+            long[] histogram = new long[COUNTER_COUNT - FIRST_STAY_COUNT];
+            System.arraycopy(counters, FIRST_STAY_COUNT, histogram, 0, histogram.length);
+            return histogram;
+        }
+    }
+
+    // Adds a committed exit to the hour of its out-time
+    public void recordClosedTicket(Ticket ticket) {
+        record(ticket.getParkingSpot().getParkingType(), ticket.getPrice(), ticket.getInTime().getTime(), ticket.getOutTime().getTime());
+    }
+
+    private void record(ParkingType parkingType, double price, long inTime, long outTime) {
+        long stayMillis = outTime - inTime;
+        int stayCount = FIRST_STAY_COUNT;
+        while (stayCount < COUNTER_COUNT - 1 && stayMillis >= STAY_BOUNDS_MILLIS[stayCount - FIRST_STAY_COUNT]) {
+            stayCount++;
+        }
+        int histogramSlot = stayCount;
+        pendingHours.compute(hourOf(outTime), (hour, counters) -> {
+            long[][] hourCounters = (counters == null) ? new long[PARKING_TYPES.length][COUNTER_COUNT] : counters;
+            long[] typeCounters = hourCounters[parkingType.ordinal()];
+            typeCounters[TICKET_COUNT]++;
+            typeCounters[REVENUE_CENTS] += Math.round(price * 100);
+            typeCounters[STAY_MILLIS] += stayMillis;
+            typeCounters[histogramSlot]++;
+            return hourCounters;
+        });
+    }
+
+    // To call before the first exit is recorded: adds up the tickets closed since the last checkpoint,
+    // or every ticket when there is no summary yet
+    public long rebuild() throws SQLException, ClassNotFoundException {
+        pendingHours.clear();
+        Connection con = null;
+        long ticketCount = 0;
+        try {
+            con = dataBaseConfig.getConnection();
+            Timestamp checkpoint = getCheckpoint(con);
+            Timestamp closedFrom = (checkpoint != null) ? checkpoint : new Timestamp(0);
+            PreparedStatement ps = con.prepareStatement(DBConstants.GET_CLOSED_TICKETS_FOR_REPORT,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(REBUILD_FETCH_SIZE);
+            ps.setTimestamp(1, closedFrom);
+            ps.setTimestamp(2, new Timestamp(END_OF_TIME.getTime()));
+            ps.setTimestamp(3, closedFrom);
+            ps.setTimestamp(4, new Timestamp(END_OF_TIME.getTime()));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                record(ParkingType.valueOf(rs.getString(1)), rs.getDouble(2), rs.getTimestamp(3).getTime(), rs.getTimestamp(4).getTime());
+                ticketCount++;
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        logger.info("Rebuilt the hourly aggregates of " + ticketCount + " tickets");
+        return ticketCount;
+    }
+
+    // Adds the hours over to the summary and moves the checkpoint to the current hour, returns the number of hours written
+    public int flush() throws SQLException, ClassNotFoundException {
+        return flushHours(true);
+    }
+
+    // For exits recorded after the fact, such as a replay: adds the hours before the checkpoint, which the gate
+    // server would not read again, and leaves the later ones to its next start, which reads them from the tickets.
+    // Nothing is written before the gate server made its first checkpoint. Returns the number of hours written.
+    public int flushHoursBeforeCheckpoint() throws SQLException, ClassNotFoundException {
+        return flushHours(false);
+    }
+
+    private int flushHours(boolean moveCheckpoint) throws SQLException, ClassNotFoundException {
+        flushLock.writeLock().lock();
+        Map<Long, long[][]> flushedHours = new TreeMap<>();
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            // locked until the commit, so flushes of other processes on the same database take turns
+            Timestamp checkpoint = getCheckpoint(con);
+            long currentHour = hourOf(System.currentTimeMillis());
+            long flushedBefore = moveCheckpoint ? currentHour : ((checkpoint == null) ? Long.MIN_VALUE : checkpoint.getTime());
+            for (Long hour : new ArrayList<>(pendingHours.keySet())) {
+                if (hour < flushedBefore) {
+                    long[][] counters = pendingHours.remove(hour);
+                    if (counters != null) {
+                        flushedHours.put(hour, counters);
+                    }
+                }
+            }
+            for (Map.Entry<Long, long[][]> flushedHour : flushedHours.entrySet()) {
+                for (ParkingType parkingType : PARKING_TYPES) {
+                    long[] typeCounters = flushedHour.getValue()[parkingType.ordinal()];
+                    if (typeCounters[TICKET_COUNT] > 0 && !addTo(con, DBConstants.ADD_TO_HOURLY_SUMMARY, flushedHour.getKey(), parkingType, typeCounters)) {
+                        addTo(con, DBConstants.SAVE_HOURLY_SUMMARY, flushedHour.getKey(), parkingType, typeCounters);
+                    }
+                }
+            }
+            if (moveCheckpoint && checkpoint == null) {
+                saveCheckpoint(con, DBConstants.SAVE_SUMMARY_CHECKPOINT, currentHour);
+            } else if (moveCheckpoint && checkpoint.getTime() < currentHour) {
+                saveCheckpoint(con, DBConstants.UPDATE_SUMMARY_CHECKPOINT, currentHour);
+            }
+            con.commit();
+            return flushedHours.size();
+        } catch (SQLException | ClassNotFoundException e) {
+            if (con != null) {
+                con.rollback();
+            }
+            // kept for the next flush, with the tickets recorded meanwhile
+            for (Map.Entry<Long, long[][]> flushedHour : flushedHours.entrySet()) {
+                pendingHours.merge(flushedHour.getKey(), flushedHour.getValue(), HourlyTicketAggregates::add);
+            }
+            throw e;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    public synchronized void startFlushing(long periodMillis) {
+        if (flushExecutor != null) {
+            return;
+        }
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hourly-ticket-aggregates-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.error("Error flushing the hourly ticket aggregates", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopFlushing() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+            flushExecutor = null;
+        }
+    }
+
+    // Summaries of the tickets closed during the hours starting from the hour of the first date to the second date
+    // excluded, per parking type. Null on error so a failure is not taken for no activity.
+    public Map<ParkingType, Summary> getSummaries(Date from, Date to) {
+        flushLock.readLock().lock();
+        try {
+            return readSummaries(from, to);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    private Map<ParkingType, Summary> readSummaries(Date from, Date to) {
+        long fromHour = hourOf(from.getTime());
+        long[][] counters = new long[PARKING_TYPES.length][COUNTER_COUNT];
+        for (Long pendingHour : pendingHours.keySet()) {
+            if (pendingHour >= fromHour && pendingHour < to.getTime()) {
+                // read through the map, as the gates may be adding to the hour
+                pendingHours.computeIfPresent(pendingHour, (hour, hourCounters) -> {
+                    add(counters, hourCounters);
+                    return hourCounters;
+                });
+            }
+        }
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            PreparedStatement ps = con.prepareStatement(DBConstants.GET_HOURLY_SUMMARY);
+            ps.setTimestamp(1, new Timestamp(fromHour));
+            ps.setTimestamp(2, new Timestamp(to.getTime()));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                long[] typeCounters = counters[ParkingType.valueOf(rs.getString(1)).ordinal()];
+                for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                    typeCounters[counter] += rs.getLong(counter + 2);
+                }
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+        } catch (Exception ex) {
+            logger.error("Error fetching hourly ticket summary", ex);
+            return null;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        Map<ParkingType, Summary> summaries = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : PARKING_TYPES) {
+            summaries.put(parkingType, new Summary(counters[parkingType.ordinal()]));
+        }
+        return summaries;
+    }
+
+    // revenue of every type, null on error
+    public Double getRevenue(Date from, Date to) {
+        Map<ParkingType, Summary> summaries = getSummaries(from, to);
+        if (summaries == null) {
+            return null;
+        }
+        double revenue = 0;
+        for (Summary summary : summaries.values()) {
+            revenue += summary.getRevenue();
+        }
+        return revenue;
+    }
+
+    private static long[][] add(long[][] counters, long[][] otherCounters) {
+        for (int type = 0; type < counters.length; type++) {
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                counters[type][counter] += otherCounters[type][counter];
+            }
+        }
+        return counters;
+    }
+
+    private static long hourOf(long time) {
+        return Math.floorDiv(time, HOUR) * HOUR;
+    }
+
+    private boolean addTo(Connection con, String statement, long hour, ParkingType parkingType, long[] typeCounters) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(statement);
+        try {
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                ps.setLong(counter + 1, typeCounters[counter]);
+            }
+            ps.setTimestamp(COUNTER_COUNT + 1, new Timestamp(hour));
+            ps.setString(COUNTER_COUNT + 2, parkingType.toString());
+            return ps.executeUpdate() == 1;
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+
+    private Timestamp getCheckpoint(Connection con) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(con.getAutoCommit() ? DBConstants.GET_SUMMARY_CHECKPOINT : DBConstants.LOCK_SUMMARY_CHECKPOINT);
+        ResultSet rs = ps.executeQuery();
+        Timestamp checkpoint = rs.next() ? rs.getTimestamp(1) : null;
+        dataBaseConfig.closeResultSet(rs);
+        dataBaseConfig.closePreparedStatement(ps);
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(Connection con, String statement, long closedBefore) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(statement);
+        try {
+            ps.setTimestamp(1, new Timestamp(closedBefore));
+            ps.executeUpdate();
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+}
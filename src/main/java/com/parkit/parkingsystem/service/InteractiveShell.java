@@ -1,16 +1,22 @@
 package com.parkit.parkingsystem.service;
 
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
 import com.parkit.parkingsystem.dao.TicketDAO;
 import com.parkit.parkingsystem.util.InputReaderUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+
 public class InteractiveShell {
 
     private static final Logger logger = LogManager.getLogger("InteractiveShell");
 
-    public static void loadInterface(){
+    private static final long PARKING_RECONCILIATION_PERIOD_MILLIS = 60 * 1000;
+    private static final long TARIFF_RELOAD_PERIOD_MILLIS = 10 * 1000;
+
+    public static void loadInterface() throws IOException {
         logger.info("App initialized!!!");
         System.out.println("Welcome to Parking System!");
 
@@ -18,7 +24,13 @@ public class InteractiveShell {
         InputReaderUtil inputReaderUtil = new InputReaderUtil();
         ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
         TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.enableJournalFromSystemProperty();
+        parkingSpotDAO.setTicketJournal(ticketDAO.getJournal());
+        parkingSpotDAO.startReconciliation(PARKING_RECONCILIATION_PERIOD_MILLIS);
+        ticketDAO.enableWriteBehindFromSystemProperty();
         ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        parkingService.fareCalculatorService = new FareCalculatorService(TariffEngine.fromSystemProperty(TARIFF_RELOAD_PERIOD_MILLIS));
+        parkingService.spotAllocationStrategy = SpotAllocationStrategy.fromSystemProperty(ticketDAO);
 
         while(continueApp){
             loadMenu();
@@ -34,6 +46,7 @@ public class InteractiveShell {
                 }
                 case 3: {
                     System.out.println("Exiting from the system!");
+                    drainWriteBehind(ticketDAO);
                     continueApp = false;
                     break;
                 }
@@ -42,6 +55,15 @@ public class InteractiveShell {
         }
     }
 
+    // the queued ticket writes reach the database before the app stops
+    private static void drainWriteBehind(TicketDAO ticketDAO) {
+        try {
+            ticketDAO.disableWriteBehind();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static void loadMenu(){
         System.out.println("Please select an option. Simply enter the number to choose an action");
         System.out.println("1 New Vehicle Entering - Allocate Parking Space");
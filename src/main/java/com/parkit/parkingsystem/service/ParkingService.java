@@ -1,11 +1,17 @@
 package com.parkit.parkingsystem.service;
 
+import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
 import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.util.Counter;
 import com.parkit.parkingsystem.util.InputReaderUtil;
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import com.parkit.parkingsystem.util.Metrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,12 +21,45 @@ public class ParkingService {
 
     private static final Logger logger = LogManager.getLogger("ParkingService");
 
-    private static final FareCalculatorService fareCalculatorService = new FareCalculatorService();
+    private static final int MAX_ALLOCATION_ATTEMPTS = 32;
+
+    // a request the garage cannot serve in its current state, such as a full garage or a vehicle without a ticket,
+    // as opposed to a failure of the system
+    public static class ConflictException extends Exception {
+        public ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    // each workflow as a whole, then the steps not already measured by the DAOs
+    private static final LatencyHistogram entryLatency = Metrics.histogram("ParkingService.entry");
+    private static final LatencyHistogram allocationLatency = Metrics.histogram("ParkingService.entry.allocate");
+    private static final LatencyHistogram entryCommitLatency = Metrics.histogram("ParkingService.entry.commit");
+    private static final LatencyHistogram exitLatency = Metrics.histogram("ParkingService.exit");
+    private static final LatencyHistogram fareLatency = Metrics.histogram("ParkingService.exit.fare");
+    private static final LatencyHistogram exitCommitLatency = Metrics.histogram("ParkingService.exit.commit");
+    private static final Counter entryFailures = Metrics.counter("ParkingService.entry.failures");
+    private static final Counter exitFailures = Metrics.counter("ParkingService.exit.failures");
 
     private final InputReaderUtil inputReaderUtil;
     private final ParkingSpotDAO parkingSpotDAO;
     private final TicketDAO ticketDAO;
 
+    // drives the unit of work of each workflow, the DAOs join it whatever configuration they use
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    public FareCalculatorService fareCalculatorService = new FareCalculatorService();
+
+    public SpotAllocationStrategy spotAllocationStrategy = SpotAllocationStrategy.LOWEST_NUMBER;
+
+    // when set, each committed exit is added to the hourly aggregates
+    public HourlyTicketAggregates hourlyTicketAggregates;
+
+    // without console input, for callers using the methods taking the vehicle details as parameters
+    public ParkingService(ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
+        this(null, parkingSpotDAO, ticketDAO);
+    }
+
     public ParkingService(InputReaderUtil inputReaderUtil, ParkingSpotDAO parkingSpotDAO, TicketDAO ticketDAO){
         this.inputReaderUtil = inputReaderUtil;
         this.parkingSpotDAO = parkingSpotDAO;
@@ -29,50 +68,110 @@ public class ParkingService {
 
     public void processIncomingVehicle() {
         try{
-            ParkingSpot parkingSpot = getNextParkingNumberIfAvailable();
+            // the vehicle is asked for first, the allocation strategy may pick its spot from it
+            String vehicleRegNumber = getVehichleRegNumber();
+            ParkingSpot parkingSpot = getNextParkingNumberIfAvailable(vehicleRegNumber);
             if(parkingSpot !=null && parkingSpot.getId() > 0){
-                String vehicleRegNumber = getVehichleRegNumber();
-                parkingSpot.setAvailable(false);
-                parkingSpotDAO.updateParking(parkingSpot);//allot this parking space and mark it's availability as false
-
-                Date inTime = new Date();
                 Ticket ticket = new Ticket();
-                //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
-                //ticket.setId(ticketID);
-                ticket.setParkingSpot(parkingSpot);
-                ticket.setVehicleRegNumber(vehicleRegNumber);
-                ticket.setPrice(0);
-                ticket.setInTime(inTime);
-                ticket.setOutTime(null);
-                ticketDAO.saveTicket(ticket);
-
-                if (ticketDAO.getNbTicket(vehicleRegNumber) > 1) {
+                if (parkVehicle(parkingSpot, vehicleRegNumber, new Date(), ticket)) {
                     System.out.println("BIENVENUE ! ------------- " +vehicleRegNumber);
                 }
                 System.out.println("Generated Ticket and saved in DB");
-                System.out.println("Please park your vehicle in spot number: " +parkingSpot.getId());
-                System.out.println("Recorded in-time for vehicle number: " +vehicleRegNumber+ " is: " +inTime);
+                System.out.println("Please park your vehicle in spot number: " +ticket.getParkingSpot().getId());
+                System.out.println("Recorded in-time for vehicle number: " +vehicleRegNumber+ " is: " +ticket.getInTime());
             }
         }catch(Exception e){
             logger.error("Unable to process incoming vehicle",e);
         }
     }
 
+    // Entry with the input given by the caller instead of the console, failures are thrown back to it
+    public Ticket processIncomingVehicle(ParkingType parkingType, String vehicleRegNumber) throws Exception {
+        return processIncomingVehicle(parkingType, vehicleRegNumber, new Date());
+    }
+
+    // Entry at a given time, to replay the events of a gate after the fact
+    public Ticket processIncomingVehicle(ParkingType parkingType, String vehicleRegNumber, Date inTime) throws Exception {
+        int parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingType, spotAllocationStrategy, vehicleRegNumber);
+        if (parkingNumber <= 0) {
+            throw new ConflictException("Error fetching parking number from DB. Parking slots might be full");
+        }
+        Ticket ticket = new Ticket();
+        parkVehicle(new ParkingSpot(parkingNumber, parkingType, true), vehicleRegNumber, inTime, ticket);
+        return ticket;
+    }
+
+    // fills the given ticket and tells whether the vehicle is a recurring user
+    private boolean parkVehicle(ParkingSpot parkingSpot, String vehicleRegNumber, Date inTime, Ticket ticket) throws Exception {
+        // the spot claim, the ticket insert and the visit count share one connection and commit together
+        long start = System.nanoTime();
+        dataBaseConfig.beginTransaction();
+        try {
+            long stepStart = System.nanoTime();
+            parkingSpot = allocateParkingSpot(parkingSpot, vehicleRegNumber);//allot this parking space and mark it's availability as false
+            allocationLatency.recordSince(stepStart);
+
+            //ID, PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME)
+            //ticket.setId(ticketID);
+            ticket.setParkingSpot(parkingSpot);
+            ticket.setVehicleRegNumber(vehicleRegNumber);
+            ticket.setPrice(0);
+            ticket.setInTime(inTime);
+            ticket.setOutTime(null);
+            if (!ticketDAO.saveTicket(ticket)) {
+                throw new Exception("Error saving ticket in DB for vehicle " + vehicleRegNumber);
+            }
+
+            boolean recurringUser = ticketDAO.getNbTicketWithoutWaiting(vehicleRegNumber) > 1;
+            stepStart = System.nanoTime();
+            dataBaseConfig.commitTransaction();
+            entryCommitLatency.recordSince(stepStart);
+            return recurringUser;
+        } catch (Exception e) {
+            entryFailures.increment();
+            throw e;
+        } finally {
+            dataBaseConfig.rollbackTransaction();
+            entryLatency.recordSince(start);
+        }
+    }
+
+    // claims the spot, moving on to the next free one when a concurrent gate got it first. A lost race leaves
+    // the spot taken, so only a spot offered again, after a database error, counts as a failed attempt.
+    private ParkingSpot allocateParkingSpot(ParkingSpot parkingSpot, String vehicleRegNumber) throws Exception {
+        int failedAttempts = 0;
+        while (failedAttempts < MAX_ALLOCATION_ATTEMPTS) {
+            parkingSpot.setAvailable(false);
+            if (parkingSpotDAO.updateParking(parkingSpot)) {
+                return parkingSpot;
+            }
+            int parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingSpot.getParkingType(), spotAllocationStrategy, vehicleRegNumber);
+            if (parkingNumber <= 0) {
+                throw new ConflictException("Error fetching parking number from DB. Parking slots might be full");
+            }
+            if (parkingNumber == parkingSpot.getId()) {
+                failedAttempts++;
+            }
+            parkingSpot = new ParkingSpot(parkingNumber, parkingSpot.getParkingType(), true);
+        }
+        throw new Exception("Error allocating parking spot. Parking slots might be full");
+    }
+
     private String getVehichleRegNumber() throws Exception {
         System.out.println("Please type the vehicle registration number and press enter key");
         return inputReaderUtil.readVehicleRegistrationNumber();
     }
 
-    public ParkingSpot getNextParkingNumberIfAvailable() throws Exception {
+    public ParkingSpot getNextParkingNumberIfAvailable(String vehicleRegNumber) throws Exception {
         int parkingNumber=0;
         ParkingSpot parkingSpot = null;
         try{
             ParkingType parkingType = getVehichleType();
-            parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingType);
+            parkingNumber = parkingSpotDAO.getNextAvailableSlot(parkingType, spotAllocationStrategy, vehicleRegNumber);
             if(parkingNumber > 0){
                 parkingSpot = new ParkingSpot(parkingNumber,parkingType, true);
             }else{
-                throw new Exception("Error fetching parking number from DB. Parking slots might be full");
+                throw new ConflictException("Error fetching parking number from DB. Parking slots might be full");
             }
         }catch(IllegalArgumentException ie){
             logger.error("Error parsing user input for type of vehicle", ie);
@@ -103,37 +202,100 @@ public class ParkingService {
         }
     }
 
+    public OccupancySnapshot getOccupancySnapshot() {
+        return parkingSpotDAO.getOccupancySnapshot();
+    }
+
     public void processExitingVehicle() {
         try{
             // targeting the right ticket. If there is none, an exception is thrown
             String vehicleRegNumber = getVehichleRegNumber();
+            Ticket ticket = exitVehicle(vehicleRegNumber, new Date());
+            if (ticket != null) {
+                System.out.println("Please pay the parking fare:" + ticket.getPrice());
+                System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + ticket.getOutTime());
+            }else{
+                System.out.println("Unable to update ticket information. Error occurred");
+            }
+        }catch(Exception e){
+            logger.error("Unable to process exiting vehicle",e);
+        }
+    }
+
+    // Exit with the input given by the caller instead of the console, failures are thrown back to it
+    public Ticket processExitingVehicle(String vehicleRegNumber) throws Exception {
+        return processExitingVehicle(vehicleRegNumber, new Date());
+    }
+
+    // Exit at a given time, to replay the events of a gate after the fact
+    public Ticket processExitingVehicle(String vehicleRegNumber, Date outTime) throws Exception {
+        Ticket ticket = exitVehicle(vehicleRegNumber, outTime);
+        if (ticket == null) {
+            throw new Exception("Unable to update ticket information for vehicle " + vehicleRegNumber);
+        }
+        return ticket;
+    }
+
+    // What the vehicle would pay if it left now, nothing is written and the ticket stays open
+    public Ticket quoteFare(String vehicleRegNumber) throws Exception {
+        Ticket ticket = ticketDAO.getTicket(vehicleRegNumber);
+        if (ticket == null || ticket.getOutTime() != null) {
+            throw new ConflictException("No open ticket found for vehicle " + vehicleRegNumber);
+        }
+        ticket.setOutTime(new Date());
+        fareCalculatorService.calculateFare(ticket, ticketDAO.getNbTicket(vehicleRegNumber) > 0);
+        return ticket;
+    }
+
+    // returns the priced ticket, or null when it could not be updated
+    private Ticket exitVehicle(String vehicleRegNumber, Date outTime) throws Exception {
+        // the ticket update and the spot release share one connection and commit together
+        long start = System.nanoTime();
+        boolean exited = false;
+        dataBaseConfig.beginTransaction();
+        try {
             Ticket ticket = ticketDAO.getTicket(vehicleRegNumber);
+            if (ticket == null) {
+                throw new ConflictException("No ticket found for vehicle " + vehicleRegNumber);
+            }
 
             // setting the outTime in the ticket object
-            Date outTime = new Date();
             ticket.setOutTime(outTime);
 
             // setting the price in the ticket object
-            if (ticketDAO.getNbTicket(vehicleRegNumber) > 0)
+            boolean recurringUser = ticketDAO.getNbTicket(vehicleRegNumber) > 0;
+            long stepStart = System.nanoTime();
+            if (recurringUser)
                 fareCalculatorService.calculateFare(ticket, true);
             else
                 fareCalculatorService.calculateFare(ticket);
+            fareLatency.recordSince(stepStart);
 
             // in the if statement, the update of the price and outTime is made in the DB, then a true statement is returned
             if(ticketDAO.updateTicket(ticket)) {
                 // targeting the spot who was linked to the ticket and making him available again in the parkingSpot object
                 ParkingSpot parkingSpot = ticket.getParkingSpot();
                 parkingSpot.setAvailable(true);
-                // update of the DB
-                parkingSpotDAO.updateParking(parkingSpot);
-
-                System.out.println("Please pay the parking fare:" + ticket.getPrice());
-                System.out.println("Recorded out-time for vehicle number:" + ticket.getVehicleRegNumber() + " is:" + outTime);
-            }else{
-                System.out.println("Unable to update ticket information. Error occurred");
+                // update of the DB, the closed ticket is not committed while its spot stays taken
+                if (!parkingSpotDAO.updateParking(parkingSpot)) {
+                    return null;
+                }
+                stepStart = System.nanoTime();
+                dataBaseConfig.commitTransaction();
+                exitCommitLatency.recordSince(stepStart);
+                exited = true;
+                if (hourlyTicketAggregates != null) {
+                    hourlyTicketAggregates.recordClosedTicket(ticket);
+                }
+                return ticket;
             }
-        }catch(Exception e){
-            logger.error("Unable to process exiting vehicle",e);
+            return null;
+        } finally {
+            dataBaseConfig.rollbackTransaction();
+            if (!exited) {
+                exitFailures.increment();
+            }
+            exitLatency.recordSince(start);
         }
     }
-}
\ No newline at end of file
+}
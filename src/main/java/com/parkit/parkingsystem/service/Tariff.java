@@ -0,0 +1,247 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.constants.Fare;
+import com.parkit.parkingsystem.constants.ParkingType;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// A tariff compiled into lookup tables: for each parking type, the rate of every hour of the week and
+// its running total, so the cost of any stay is a difference of two table reads per duration tier.
+// Compiled from a definition like:
+//   CAR.rate=150                   hourly rate in cents
+//   CAR.rate.MON-FRI.8-19=200      rate of some hours of the week, smaller ranges override larger ones
+//   CAR.tier.24=50                 from the 24th hour of the stay, 50% of the rate
+//   freeMinutes=30                 stays up to 30 minutes are free
+//   discountPercent=95             share of the price paid by recurring users
+//   zone=Europe/Paris              zone of the hours of the week, the system one by default
+public class Tariff {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final long WEEK_MILLIS = 7 * 24 * HOUR_MILLIS;
+    private static final int HOURS_PER_WEEK = 7 * 24;
+    // 1970-01-05, the first Monday of the epoch
+    private static final long FIRST_MONDAY_MILLIS = 4 * 24 * HOUR_MILLIS;
+    // 2100-01-01T00:00Z, offset changes are tabulated up to it
+    private static final long OFFSETS_END_MILLIS = 4102444800000L;
+
+    private static class Rates {
+        // rate of each hour of the week from Monday 00:00, and the sum of the rates before it
+        private final long[] hourlyRates = new long[HOURS_PER_WEEK];
+        private final long[] ratesBefore = new long[HOURS_PER_WEEK + 1];
+        // start of each tier from the start of the stay, and its percentage of the rate
+        private long[] tierStarts = {0};
+        private long[] tierPercents = {100};
+
+        private long weekCost() {
+            return ratesBefore[HOURS_PER_WEEK] * HOUR_MILLIS;
+        }
+
+        // cost in cents x millis / hour from the first Monday of the epoch to the given local time
+        private long costUntil(long localMillis) {
+            long weeks = Math.floorDiv(localMillis - FIRST_MONDAY_MILLIS, WEEK_MILLIS);
+            long inWeek = localMillis - FIRST_MONDAY_MILLIS - weeks * WEEK_MILLIS;
+            int hour = (int) (inWeek / HOUR_MILLIS);
+            return weeks * weekCost() + ratesBefore[hour] * HOUR_MILLIS + hourlyRates[hour] * (inWeek - hour * HOUR_MILLIS);
+        }
+    }
+
+    private final Map<ParkingType, Rates> rates;
+    private final long freeMillis;
+    private final long discountPercent;
+    private final ZoneRules zoneRules;
+    // instants the offset of the zone changes at from the epoch, and the offset before each of them then after the
+    // last one, so the offset of a stay is a binary search instead of a ZoneRules lookup allocating an Instant
+    private final long[] transitionMillis;
+    private final long[] offsetMillis;
+
+    private Tariff(Map<ParkingType, Rates> rates, long freeMillis, long discountPercent, ZoneId zone) {
+        this.rates = rates;
+        this.freeMillis = freeMillis;
+        this.discountPercent = discountPercent;
+        this.zoneRules = zone.getRules();
+        List<Long> transitions = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        offsets.add(zoneRules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L);
+        ZoneOffsetTransition transition = zoneRules.nextTransition(Instant.EPOCH);
+        while (transition != null && transition.toEpochSecond() * 1000 < OFFSETS_END_MILLIS) {
+            transitions.add(transition.toEpochSecond() * 1000);
+            offsets.add(transition.getOffsetAfter().getTotalSeconds() * 1000L);
+            transition = zoneRules.nextTransition(transition.getInstant());
+        }
+        this.transitionMillis = transitions.stream().mapToLong(Long::longValue).toArray();
+        this.offsetMillis = offsets.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // The rates of the Fare constants, flat all week long
+    public static Tariff standard() {
+        Properties definition = new Properties();
+        definition.setProperty("CAR.rate", String.valueOf(Fare.CAR_RATE_PER_HOUR_CENTS));
+        definition.setProperty("BIKE.rate", String.valueOf(Fare.BIKE_RATE_PER_HOUR_CENTS));
+        definition.setProperty("freeMinutes", "30");
+        definition.setProperty("discountPercent", String.valueOf(Fare.DISCOUNT_PERCENT));
+        definition.setProperty("zone", "UTC");
+        return compile(definition);
+    }
+
+    public static Tariff compile(Properties definition) {
+        Map<ParkingType, Rates> rates = new EnumMap<>(ParkingType.class);
+        for (ParkingType parkingType : ParkingType.values()) {
+            String baseRate = definition.getProperty(parkingType + ".rate");
+            if (baseRate == null) {
+                continue;
+            }
+            Rates typeRates = new Rates();
+            fill(typeRates.hourlyRates, 0, HOURS_PER_WEEK, parseNonNegative(parkingType + ".rate", baseRate));
+            applyHourRanges(definition, parkingType, typeRates);
+            for (int hour = 0; hour < HOURS_PER_WEEK; hour++) {
+                typeRates.ratesBefore[hour + 1] = typeRates.ratesBefore[hour] + typeRates.hourlyRates[hour];
+            }
+            applyTiers(definition, parkingType, typeRates);
+            rates.put(parkingType, typeRates);
+        }
+        long freeMinutes = parseNonNegative("freeMinutes", definition.getProperty("freeMinutes", "0"));
+        long discountPercent = parseNonNegative("discountPercent", definition.getProperty("discountPercent", "100"));
+        if (discountPercent > 100) {
+            throw new IllegalArgumentException("discountPercent must be at most 100");
+        }
+        String zone = definition.getProperty("zone");
+        return new Tariff(rates, freeMinutes * 60 * 1000, discountPercent, (zone == null) ? ZoneId.systemDefault() : ZoneId.of(zone));
+    }
+
+    // Price in cents rounded half up. The hours of the week are read at the offset of the in-time,
+    // so a stay over a daylight saving change is charged for its real duration.
+    public long priceCents(long inTimeMillis, long outTimeMillis, ParkingType parkingType, boolean discount) {
+        Rates typeRates = (parkingType == null) ? null : rates.get(parkingType);
+        if (typeRates == null) {
+            throw new IllegalArgumentException("Unkown Parking Type");
+        }
+        long duration = outTimeMillis - inTimeMillis;
+        if (duration <= freeMillis) {
+            return 0;
+        }
+        long offset = offsetAt(inTimeMillis);
+        long localIn = inTimeMillis + offset;
+        long localOut = outTimeMillis + offset;
+
+        long numerator = 0;
+        for (int tier = 0; tier < typeRates.tierStarts.length; tier++) {
+            long start = localIn + typeRates.tierStarts[tier];
+            if (start >= localOut) {
+                break;
+            }
+            long end = (tier + 1 < typeRates.tierStarts.length) ? Math.min(localIn + typeRates.tierStarts[tier + 1], localOut) : localOut;
+            long cost = typeRates.costUntil(end) - typeRates.costUntil(start);
+            numerator = Math.addExact(numerator, Math.multiplyExact(cost, typeRates.tierPercents[tier]));
+        }
+        numerator = Math.multiplyExact(numerator, discount ? discountPercent : 100);
+        long denominator = HOUR_MILLIS * 100 * 100;
+        return (numerator + denominator / 2) / denominator;
+    }
+
+    private long offsetAt(long instantMillis) {
+        if ((instantMillis < 0 || instantMillis >= OFFSETS_END_MILLIS) && !zoneRules.isFixedOffset()) {
+            return zoneRules.getOffset(Instant.ofEpochMilli(instantMillis)).getTotalSeconds() * 1000L;
+        }
+        int index = Arrays.binarySearch(transitionMillis, instantMillis);
+        return offsetMillis[(index >= 0) ? index + 1 : -index - 1];
+    }
+
+    // <type>.rate.<first day>-<last day>.<first hour>-<end hour>, applied from the largest range to the smallest
+    private static void applyHourRanges(Properties definition, ParkingType parkingType, Rates typeRates) {
+        String prefix = parkingType + ".rate.";
+        TreeMap<String, int[]> ranges = new TreeMap<>();
+        for (String key : definition.stringPropertyNames()) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            String[] parts = key.substring(prefix.length()).split("\\.");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid hour range: " + key);
+            }
+            try {
+                String[] days = parts[0].split("-");
+                String[] hours = parts[1].split("-");
+                int firstDay = dayIndex(days[0]);
+                int lastDay = dayIndex(days[days.length - 1]);
+                int firstHour = Integer.parseInt(hours[0]);
+                int endHour = Integer.parseInt(hours[hours.length - 1]);
+                if (hours.length != 2 || firstHour < 0 || endHour > 24 || firstHour >= endHour) {
+                    throw new IllegalArgumentException("Invalid hours");
+                }
+                int dayCount = Math.floorMod(lastDay - firstDay, 7) + 1;
+                ranges.put(key, new int[]{firstDay, dayCount, firstHour, endHour, dayCount * (endHour - firstHour)});
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid hour range: " + key, e);
+            }
+        }
+        List<String> keys = new ArrayList<>(ranges.keySet());
+        keys.sort((a, b) -> Integer.compare(ranges.get(b)[4], ranges.get(a)[4]));
+        for (String key : keys) {
+            int[] range = ranges.get(key);
+            long rate = parseNonNegative(key, definition.getProperty(key));
+            for (int day = 0; day < range[1]; day++) {
+                int dayStart = ((range[0] + day) % 7) * 24;
+                fill(typeRates.hourlyRates, dayStart + range[2], dayStart + range[3], rate);
+            }
+        }
+    }
+
+    // <type>.tier.<hour of the stay>=<percent of the rate>
+    private static void applyTiers(Properties definition, ParkingType parkingType, Rates typeRates) {
+        String prefix = parkingType + ".tier.";
+        TreeMap<Long, Long> tiers = new TreeMap<>();
+        tiers.put(0L, 100L);
+        for (String key : definition.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                long startHour = parseNonNegative(key, key.substring(prefix.length()));
+                tiers.put(startHour * HOUR_MILLIS, parseNonNegative(key, definition.getProperty(key)));
+            }
+        }
+        typeRates.tierStarts = new long[tiers.size()];
+        typeRates.tierPercents = new long[tiers.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> tier : tiers.entrySet()) {
+            typeRates.tierStarts[i] = tier.getKey();
+            typeRates.tierPercents[i] = tier.getValue();
+            i++;
+        }
+    }
+
+    private static int dayIndex(String day) {
+        for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+            if (dayOfWeek.name().startsWith(day.trim().toUpperCase()) && day.trim().length() >= 3) {
+                return dayOfWeek.ordinal();
+            }
+        }
+        throw new IllegalArgumentException("Unknown day: " + day);
+    }
+
+    private static void fill(long[] hourlyRates, int from, int to, long rate) {
+        for (int hour = from; hour < to; hour++) {
+            hourlyRates[hour] = rate;
+        }
+    }
+
+    private static long parseNonNegative(String key, String value) {
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed < 0) {
+                throw new NumberFormatException("negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value, e);
+        }
+    }
+}
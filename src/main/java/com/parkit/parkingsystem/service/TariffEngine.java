@@ -0,0 +1,118 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Holds the current tariff and recompiles it when its definition file changes, without stopping the gates.
+// A definition that fails to compile is logged and the previous tariff stays in use.
+public class TariffEngine {
+
+    private static final Logger logger = LogManager.getLogger("TariffEngine");
+
+    // path of the tariff definition, the standard tariff is used when not set. A garage whose own file sits next to
+    // it, tariff.2.properties for garage 2 of tariff.properties, is priced with that one instead.
+    public static final String TARIFF_FILE_PROPERTY = "parking.tariff.file";
+
+    private final File tariffFile;
+    private volatile Tariff tariff;
+    private long loadedLastModified;
+    private ScheduledExecutorService reloadExecutor;
+
+    public TariffEngine() {
+        this.tariffFile = null;
+        this.tariff = Tariff.standard();
+    }
+
+    // fails right away if the file cannot be compiled, there is no previous tariff to fall back on
+    public TariffEngine(File tariffFile) throws IOException {
+        this.tariffFile = tariffFile;
+        this.loadedLastModified = tariffFile.lastModified();
+        this.tariff = load(tariffFile);
+    }
+
+    // Engine of the file named by the system property, reloaded with the given period, or the standard one
+    public static TariffEngine fromSystemProperty(long reloadPeriodMillis) throws IOException {
+        return fromSystemProperty(DataBaseConfig.DEFAULT_GARAGE_ID, reloadPeriodMillis);
+    }
+
+    public static TariffEngine fromSystemProperty(int garageId, long reloadPeriodMillis) throws IOException {
+        String tariffFile = System.getProperty(TARIFF_FILE_PROPERTY);
+        if (tariffFile == null) {
+            return new TariffEngine();
+        }
+        TariffEngine tariffEngine = new TariffEngine(garageTariffFile(new File(tariffFile), garageId));
+        tariffEngine.startReloading(reloadPeriodMillis);
+        return tariffEngine;
+    }
+
+    // the file of the garage next to the default one, the default one when the garage has none
+    public static File garageTariffFile(File tariffFile, int garageId) {
+        String name = tariffFile.getName();
+        int extension = name.lastIndexOf('.');
+        String garageName = (extension < 0) ? name + "." + garageId
+                : name.substring(0, extension) + "." + garageId + name.substring(extension);
+        File garageTariffFile = new File(tariffFile.getParentFile(), garageName);
+        return garageTariffFile.isFile() ? garageTariffFile : tariffFile;
+    }
+
+    public Tariff getTariff() {
+        return tariff;
+    }
+
+    // returns true when a new tariff was put in use
+    public synchronized boolean reloadIfModified() {
+        if (tariffFile == null) {
+            return false;
+        }
+        long lastModified = tariffFile.lastModified();
+        if (lastModified == loadedLastModified) {
+            return false;
+        }
+        loadedLastModified = lastModified;
+        try {
+            tariff = load(tariffFile);
+            logger.info("Tariff reloaded from " + tariffFile);
+            return true;
+        } catch (Exception e) {
+            logger.error("Unable to load tariff from " + tariffFile + ", keeping the current one", e);
+            return false;
+        }
+    }
+
+    public synchronized void startReloading(long periodMillis) {
+        if (reloadExecutor != null) {
+            return;
+        }
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tariff-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloadExecutor.scheduleWithFixedDelay(this::reloadIfModified, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReloading() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
+        }
+    }
+
+    private static Tariff load(File tariffFile) throws IOException {
+        Properties definition = new Properties();
+        try (InputStream in = new FileInputStream(tariffFile)) {
+            definition.load(in);
+        }
+        return Tariff.compile(definition);
+    }
+}
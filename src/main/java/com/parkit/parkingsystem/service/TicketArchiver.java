@@ -0,0 +1,142 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Moves the tickets closed before a retention period out of the ticket table into ticket_archive, whose primary key
+// starts with the month the ticket was opened, so the gates only ever search and update recent tickets while
+// history stays grouped by month. Tickets move by ranges of ids, each range copied then deleted in its own
+// transaction, so an archiving pass never holds the ticket table for long and can be stopped at any time.
+public class TicketArchiver {
+
+    private static final Logger logger = LogManager.getLogger("TicketArchiver");
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    // retention in days of closed tickets in the ticket table, archiving is off when not set
+    public static final String ARCHIVE_DAYS_PROPERTY = "parking.archive.days";
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    private final int batchSize;
+
+    private ScheduledExecutorService archivingExecutor;
+
+    public TicketArchiver(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    // Archives the tickets closed more than the given number of days ago, returns the number of tickets moved
+    public long archive(int retentionDays) throws SQLException, ClassNotFoundException {
+        return archiveClosedBefore(new Date(System.currentTimeMillis() - retentionDays * DAY));
+    }
+
+    public long archiveClosedBefore(Date closedBefore) throws SQLException, ClassNotFoundException {
+        Timestamp cutoff = new Timestamp(closedBefore.getTime());
+        long archivedCount = 0;
+        int movedCount;
+        do {
+            movedCount = archiveBatch(cutoff);
+            archivedCount += movedCount;
+        } while (movedCount == batchSize);
+        if (archivedCount > 0) {
+            logger.info("Archived " + archivedCount + " tickets closed before " + cutoff);
+        }
+        return archivedCount;
+    }
+
+    // Archives once right away, then again after each period
+    public synchronized void startArchiving(int retentionDays, long periodMillis) {
+        if (archivingExecutor != null) {
+            return;
+        }
+        archivingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ticket-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        archivingExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                archive(retentionDays);
+            } catch (Exception e) {
+                // the batches already committed stay archived, the next pass carries on
+                logger.error("Error archiving tickets", e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopArchiving() {
+        if (archivingExecutor != null) {
+            archivingExecutor.shutdownNow();
+            archivingExecutor = null;
+        }
+    }
+
+    // returns the number of tickets moved, less than the batch size once the last ones are archived
+    private int archiveBatch(Timestamp cutoff) throws SQLException, ClassNotFoundException {
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            con.setAutoCommit(false);
+            int fromId = 0;
+            int toId = 0;
+            int ticketCount = 0;
+            PreparedStatement ps = con.prepareStatement(DBConstants.GET_TICKETS_TO_ARCHIVE);
+            ps.setTimestamp(1, cutoff);
+            ps.setInt(2, batchSize);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                if (ticketCount++ == 0) {
+                    fromId = rs.getInt(1);
+                }
+                toId = rs.getInt(1);
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+            if (ticketCount == 0) {
+                con.commit();
+                return 0;
+            }
+            int insertedCount = moveRange(con, DBConstants.ARCHIVE_TICKETS, fromId, toId, cutoff);
+            int deletedCount = moveRange(con, DBConstants.DELETE_ARCHIVED_TICKETS, fromId, toId, cutoff);
+            // a ticket of the range closed meanwhile would be deleted without being archived
+            if (insertedCount != deletedCount) {
+                throw new SQLException("Archived " + insertedCount + " tickets but deleted " + deletedCount
+                        + " between ids " + fromId + " and " + toId);
+            }
+            con.commit();
+            return ticketCount;
+        } catch (SQLException e) {
+            if (con != null) {
+                con.rollback();
+            }
+            throw e;
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    private int moveRange(Connection con, String statement, int fromId, int toId, Timestamp cutoff) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(statement);
+        try {
+            ps.setInt(1, fromId);
+            ps.setInt(2, toId);
+            ps.setTimestamp(3, cutoff);
+            return ps.executeUpdate();
+        } finally {
+            dataBaseConfig.closePreparedStatement(ps);
+        }
+    }
+}
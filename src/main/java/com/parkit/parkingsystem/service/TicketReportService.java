@@ -0,0 +1,270 @@
+package com.parkit.parkingsystem.service;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Revenue, stays and occupancy of a period, over the ticket table and its archive. The period is cut into ranges
+// of exit time read in parallel, each on its own connection with a forward-only cursor, and the rows are added
+// into arrays of one slot per hour and parking type: memory depends on the length of the period, never on the
+// number of tickets, and no lock is held on the tickets beyond the reads of the cursor.
+public class TicketReportService {
+
+    private static final Logger logger = LogManager.getLogger("TicketReportService");
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final int HOURS_PER_DAY = 24;
+    private static final ParkingType[] PARKING_TYPES = ParkingType.values();
+
+    public DataBaseConfig dataBaseConfig = new DataBaseConfig();
+
+    private final int fetchSize;
+    private final int parallelism;
+
+    // Hourly slots from the start of the report, an hour being counted in the day it starts in
+    public static class Report {
+        private final long from;
+        private final int hours;
+        private final long[][] revenueCents;
+        private final long[] ticketCounts;
+        private final long[] stayMillis;
+        // vehicles arriving minus vehicles gone, per hour: their running sum is the occupancy of each hour
+        private final int[][] occupancyChanges;
+
+        private Report(long from, int hours) {
+            this.from = from;
+            this.hours = hours;
+            this.revenueCents = new long[PARKING_TYPES.length][hours];
+            this.ticketCounts = new long[PARKING_TYPES.length];
+            this.stayMillis = new long[PARKING_TYPES.length];
+            this.occupancyChanges = new int[PARKING_TYPES.length][hours + 1];
+        }
+
+        private int hourOf(long time) {
+            return (int) Math.max(0, Math.min(hours, (time - from) / HOUR));
+        }
+
+        private void addClosedTicket(ParkingType parkingType, double price, long inTime, long outTime) {
+            int type = parkingType.ordinal();
+            int outHour = hourOf(outTime);
+            revenueCents[type][outHour] += Math.round(price * 100);
+            ticketCounts[type]++;
+            stayMillis[type] += outTime - inTime;
+            occupancyChanges[type][hourOf(inTime)]++;
+            occupancyChanges[type][outHour + 1]--;
+        }
+
+        private void addParkedTicket(ParkingType parkingType, long inTime) {
+            int type = parkingType.ordinal();
+            occupancyChanges[type][hourOf(inTime)]++;
+            occupancyChanges[type][hours]--;
+        }
+
+        private void add(Report other) {
+            for (int type = 0; type < PARKING_TYPES.length; type++) {
+                for (int hour = 0; hour < hours; hour++) {
+                    revenueCents[type][hour] += other.revenueCents[type][hour];
+                }
+                for (int hour = 0; hour <= hours; hour++) {
+                    occupancyChanges[type][hour] += other.occupancyChanges[type][hour];
+                }
+                ticketCounts[type] += other.ticketCounts[type];
+                stayMillis[type] += other.stayMillis[type];
+            }
+        }
+
+        public Date getFrom() {
+            return new Date(from);
+        }
+
+        public int getHours() {
+            return hours;
+        }
+
+        // revenue of the tickets closed during each hour of the report, all types together
+        public double[] getRevenuePerHour() {
+            double[] revenue = new double[hours];
+            for (int hour = 0; hour < hours; hour++) {
+                for (int type = 0; type < PARKING_TYPES.length; type++) {
+                    revenue[hour] += revenueCents[type][hour];
+                }
+                revenue[hour] /= 100;
+            }
+            return revenue;
+        }
+
+        public double[] getRevenuePerDay() {
+            double[] revenuePerHour = getRevenuePerHour();
+            double[] revenue = new double[(hours + HOURS_PER_DAY - 1) / HOURS_PER_DAY];
+            for (int hour = 0; hour < hours; hour++) {
+                revenue[hour / HOURS_PER_DAY] += revenuePerHour[hour];
+            }
+            return revenue;
+        }
+
+        public double getRevenue(ParkingType parkingType) {
+            long cents = 0;
+            for (long hourCents : revenueCents[parkingType.ordinal()]) {
+                cents += hourCents;
+            }
+            return cents / 100.0;
+        }
+
+        public long getTicketCount(ParkingType parkingType) {
+            return ticketCounts[parkingType.ordinal()];
+        }
+
+        // 0 when no ticket of the type was closed
+        public long getAverageStayMillis(ParkingType parkingType) {
+            int type = parkingType.ordinal();
+            return (ticketCounts[type] == 0) ? 0 : stayMillis[type] / ticketCounts[type];
+        }
+
+        // most vehicles of the type parked at some time of a same hour
+        public int getPeakOccupancy(ParkingType parkingType) {
+            return occupancyOfPeakHour(parkingType)[0];
+        }
+
+        // start of the first hour with the peak occupancy
+        public Date getPeakOccupancyHour(ParkingType parkingType) {
+            return new Date(from + occupancyOfPeakHour(parkingType)[1] * HOUR);
+        }
+
+        private int[] occupancyOfPeakHour(ParkingType parkingType) {
+            int[] changes = occupancyChanges[parkingType.ordinal()];
+            int occupancy = 0;
+            int peak = 0;
+            int peakHour = 0;
+            for (int hour = 0; hour < hours; hour++) {
+                occupancy += changes[hour];
+                if (occupancy > peak) {
+                    peak = occupancy;
+                    peakHour = hour;
+                }
+            }
+            return new int[]{peak, peakHour};
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder("Report of ").append(hours).append(" hours from ").append(getFrom());
+            for (ParkingType parkingType : PARKING_TYPES) {
+                report.append(System.lineSeparator()).append(parkingType)
+                        .append(": revenue ").append(getRevenue(parkingType))
+                        .append(", tickets ").append(getTicketCount(parkingType))
+                        .append(", average stay ").append(getAverageStayMillis(parkingType) / 60000).append(" min")
+                        .append(", peak occupancy ").append(getPeakOccupancy(parkingType))
+                        .append(" at ").append(getPeakOccupancyHour(parkingType));
+            }
+            double[] revenuePerDay = getRevenuePerDay();
+            for (int day = 0; day < revenuePerDay.length; day++) {
+                report.append(System.lineSeparator()).append("day ").append(day + 1).append(": ").append(revenuePerDay[day]);
+            }
+            return report.toString();
+        }
+    }
+
+    public TicketReportService(int fetchSize, int parallelism) {
+        this.fetchSize = fetchSize;
+        this.parallelism = parallelism;
+    }
+
+    // Report of the tickets closed from the first date included to the second one excluded, and of the vehicles
+    // parked during that time
+    public Report report(Date from, Date to) throws Exception {
+        long start = from.getTime();
+        long end = to.getTime();
+        int hours = (int) ((end - start + HOUR - 1) / HOUR);
+        int rangeHours = Math.max(1, (hours + parallelism - 1) / parallelism);
+        List<Callable<Report>> tasks = new ArrayList<>();
+        for (long rangeStart = start; rangeStart < end; rangeStart += rangeHours * HOUR) {
+            long rangeEnd = Math.min(end, rangeStart + rangeHours * HOUR);
+            long closedFrom = rangeStart;
+            tasks.add(() -> readClosedTickets(start, hours, closedFrom, rangeEnd));
+        }
+        tasks.add(() -> readParkedTickets(start, hours, end));
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(tasks.size(), parallelism + 1),
+                runnable -> new Thread(runnable, "ticket-report-" + threadNumber.incrementAndGet()));
+        try {
+            Report report = new Report(start, hours);
+            for (Future<Report> rangeReport : readers.invokeAll(tasks)) {
+                report.add(rangeReport.get());
+            }
+            return report;
+        } catch (ExecutionException e) {
+            logger.error("Error reporting on tickets from " + from + " to " + to, e.getCause());
+            throw e;
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private Report readClosedTickets(long start, int hours, long closedFrom, long closedTo) throws SQLException, ClassNotFoundException {
+        Report report = new Report(start, hours);
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            PreparedStatement ps = prepareStreaming(con, DBConstants.GET_CLOSED_TICKETS_FOR_REPORT);
+            ps.setTimestamp(1, new Timestamp(closedFrom));
+            ps.setTimestamp(2, new Timestamp(closedTo));
+            ps.setTimestamp(3, new Timestamp(closedFrom));
+            ps.setTimestamp(4, new Timestamp(closedTo));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                report.addClosedTicket(ParkingType.valueOf(rs.getString(1)), rs.getDouble(2),
+                        rs.getTimestamp(3).getTime(), rs.getTimestamp(4).getTime());
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        return report;
+    }
+
+    private Report readParkedTickets(long start, int hours, long end) throws SQLException, ClassNotFoundException {
+        Report report = new Report(start, hours);
+        Connection con = null;
+        try {
+            con = dataBaseConfig.getConnection();
+            PreparedStatement ps = prepareStreaming(con, DBConstants.GET_PARKED_TICKETS_FOR_REPORT);
+            for (int parameter = 1; parameter <= 4; parameter++) {
+                ps.setTimestamp(parameter, new Timestamp(end));
+            }
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                report.addParkedTicket(ParkingType.valueOf(rs.getString(1)), rs.getTimestamp(2).getTime());
+            }
+            dataBaseConfig.closeResultSet(rs);
+            dataBaseConfig.closePreparedStatement(ps);
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+        return report;
+    }
+
+    private PreparedStatement prepareStreaming(Connection con, String query) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(fetchSize);
+        return ps;
+    }
+}
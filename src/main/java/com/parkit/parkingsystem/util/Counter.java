@@ -0,0 +1,18 @@
+package com.parkit.parkingsystem.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Event counter, striped so the threads counting at the same time do not contend
+public class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
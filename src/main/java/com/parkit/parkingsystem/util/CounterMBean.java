@@ -0,0 +1,6 @@
+package com.parkit.parkingsystem.util;
+
+public interface CounterMBean {
+
+    long getCount();
+}
@@ -0,0 +1,19 @@
+package com.parkit.parkingsystem.util;
+
+// Attributes of a latency histogram shown over JMX, in microseconds since the start of the application
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    long getMeanMicros();
+
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+
+    long getMaxMicros();
+}
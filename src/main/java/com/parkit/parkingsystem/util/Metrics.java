@@ -0,0 +1,113 @@
+package com.parkit.parkingsystem.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Latency histograms and counters of the application, by name such as "TicketDAO.saveTicket".
+// Each one is registered in JMX under com.parkit.parkingsystem when first used, and can be dumped as text.
+// Callers keep the histograms they record in static fields, so recording does not even look them up.
+public class Metrics {
+
+    private static final Logger logger = LogManager.getLogger("Metrics");
+
+    private static final String JMX_DOMAIN = "com.parkit.parkingsystem";
+
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService reporter;
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> {
+            LatencyHistogram histogram = new LatencyHistogram();
+            registerMBean("Latency", key, histogram);
+            return histogram;
+        });
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> {
+            Counter counter = new Counter();
+            registerMBean("Counter", key, counter);
+            return counter;
+        });
+    }
+
+    // A failed registration only loses the JMX view, the metric keeps being recorded and dumped
+    public static void registerMBean(String type, String name, Object mBean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mBean,
+                    new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            logger.warn("Unable to register " + name + " in JMX", e);
+        }
+    }
+
+    // Every metric since the start of the application
+    public static String dump() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            snapshots.put(histogram.getKey(), histogram.getValue().snapshot());
+        }
+        return format(snapshots);
+    }
+
+    // Logs what was recorded during each period, so the peaks do not drown in the totals
+    public static synchronized void startReporting(long periodMillis) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, LatencyHistogram.Snapshot> previous = new HashMap<>();
+        reporter.scheduleAtFixedRate(() -> {
+            Map<String, LatencyHistogram.Snapshot> period = new HashMap<>();
+            for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+                LatencyHistogram.Snapshot snapshot = histogram.getValue().snapshot();
+                LatencyHistogram.Snapshot earlier = previous.put(histogram.getKey(), snapshot);
+                period.put(histogram.getKey(), (earlier == null) ? snapshot : snapshot.since(earlier));
+            }
+            logger.info("Metrics of the last " + periodMillis / 1000 + " s\n" + format(period));
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    private static String format(Map<String, LatencyHistogram.Snapshot> snapshots) {
+        StringBuilder text = new StringBuilder(String.format("%-40s %10s %10s %10s %10s %10s %10s%n",
+                "latency (us)", "count", "mean", "p50", "p90", "p99", "p99.9"));
+        for (String name : histograms.keySet()) {
+            LatencyHistogram.Snapshot snapshot = snapshots.get(name);
+            if (snapshot == null || snapshot.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format("%-40s %10d %10d %10d %10d %10d %10d%n", name, snapshot.getCount(),
+                    snapshot.getMeanNanos() / 1000, snapshot.getPercentileNanos(50) / 1000,
+                    snapshot.getPercentileNanos(90) / 1000, snapshot.getPercentileNanos(99) / 1000,
+                    snapshot.getPercentileNanos(99.9) / 1000));
+        }
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            text.append(String.format("%-40s %10d%n", counter.getKey(), counter.getValue().getCount()));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,69 @@
+/* Schema of the embedded storage, run each time its database is opened: only what is missing is created */
+create table if not exists parking(
+PARKING_NUMBER int PRIMARY KEY,
+AVAILABLE bool NOT NULL,
+TYPE varchar(10) NOT NULL,
+LEVEL int NOT NULL DEFAULT 0
+);
+
+create table if not exists ticket(
+ ID int PRIMARY KEY AUTO_INCREMENT,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME,
+ GARAGE_ID int NOT NULL DEFAULT 1,
+ FOREIGN KEY (PARKING_NUMBER)
+ REFERENCES parking(PARKING_NUMBER));
+
+/* databases created before garages and levels */
+alter table parking add column if not exists LEVEL int NOT NULL DEFAULT 0;
+alter table ticket add column if not exists GARAGE_ID int NOT NULL DEFAULT 1;
+
+create index if not exists IDX_TICKET_VEHICLE on ticket(VEHICLE_REG_NUMBER, OUT_TIME, IN_TIME);
+/* reports and revenue read the tickets by exit time */
+create index if not exists IDX_TICKET_OUT_TIME on ticket(OUT_TIME);
+
+/* closed tickets older than the retention of the ticket table, keyed by in-time month so each month is stored together */
+create table if not exists ticket_archive(
+ IN_MONTH int NOT NULL,
+ ID int NOT NULL,
+ PARKING_NUMBER int NOT NULL,
+ VEHICLE_REG_NUMBER varchar(10) NOT NULL,
+ PRICE double,
+ IN_TIME DATETIME NOT NULL,
+ OUT_TIME DATETIME NOT NULL,
+ GARAGE_ID int NOT NULL DEFAULT 1,
+ PRIMARY KEY (IN_MONTH, ID));
+
+create index if not exists IDX_ARCHIVE_VEHICLE on ticket_archive(VEHICLE_REG_NUMBER, IN_TIME);
+create index if not exists IDX_ARCHIVE_OUT_TIME on ticket_archive(OUT_TIME);
+
+/* closed tickets added up per hour of exit and parking type, stays counted under 30 min, 1, 2, 4, 8, 24 hours and over */
+create table if not exists ticket_hourly_summary(
+ HOUR_START DATETIME NOT NULL,
+ TYPE varchar(10) NOT NULL,
+ TICKET_COUNT bigint NOT NULL,
+ REVENUE_CENTS bigint NOT NULL,
+ STAY_MILLIS bigint NOT NULL,
+ STAYS_30M bigint NOT NULL,
+ STAYS_1H bigint NOT NULL,
+ STAYS_2H bigint NOT NULL,
+ STAYS_4H bigint NOT NULL,
+ STAYS_8H bigint NOT NULL,
+ STAYS_24H bigint NOT NULL,
+ STAYS_OVER_24H bigint NOT NULL,
+ PRIMARY KEY (HOUR_START, TYPE));
+
+/* the summary holds every ticket closed before CLOSED_BEFORE, the later ones are added up again on restart */
+create table if not exists ticket_summary_checkpoint(
+ ID int PRIMARY KEY,
+ CLOSED_BEFORE DATETIME NOT NULL);
+
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(1,true,'CAR');
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(2,true,'CAR');
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(3,true,'CAR');
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(4,true,'BIKE');
+insert ignore into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(5,true,'BIKE');
+commit;
@@ -0,0 +1,91 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.AsyncParkingService;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncParkingServiceTest {
+
+    @Mock
+    private ParkingService parkingService;
+
+    private Ticket ticket(int parkingNumber) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setInTime(new Date());
+        return ticket;
+    }
+
+    @Test
+    public void vehiclesAreProcessedConcurrentlyWithoutBlockingTheCaller() throws Exception {
+        // Given: every entry waits until four of them are in progress at the same time
+        AsyncParkingService asyncParkingService = new AsyncParkingService(parkingService, 4, 16);
+        CountDownLatch inProgress = new CountDownLatch(4);
+        when(parkingService.processIncomingVehicle(eq(ParkingType.CAR), anyString())).then(invocation -> {
+            inProgress.countDown();
+            assertTrue(inProgress.await(10, TimeUnit.SECONDS));
+            return ticket(1);
+        });
+
+        // When: the caller only collects futures
+        List<CompletableFuture<Ticket>> entries = new ArrayList<>();
+        for (int lane = 0; lane < 4; lane++) {
+            entries.add(asyncParkingService.processIncomingVehicle(ParkingType.CAR, "LANE" + lane));
+        }
+
+        // Then
+        CompletableFuture.allOf(entries.toArray(new CompletableFuture<?>[0])).get(20, TimeUnit.SECONDS);
+        for (CompletableFuture<Ticket> entry : entries) {
+            assertEquals(1, entry.get().getParkingSpot().getId());
+        }
+        asyncParkingService.shutdown(1000);
+    }
+
+    @Test
+    public void failuresAndSaturationCompleteTheFutureExceptionally() throws Exception {
+        // Given: a single I/O thread, held by a slow exit, and no room in the queue
+        AsyncParkingService asyncParkingService = new AsyncParkingService(parkingService, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(parkingService.processExitingVehicle("SLOW")).then(invocation -> {
+            started.countDown();
+            release.await();
+            throw new Exception("No ticket found for vehicle SLOW");
+        });
+        CompletableFuture<Ticket> slowExit = asyncParkingService.processExitingVehicle("SLOW");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Ticket> queuedQuote = asyncParkingService.quoteFare("QUEUED");
+
+        // When
+        CompletableFuture<Ticket> rejectedQuote = asyncParkingService.quoteFare("REJECTED");
+        release.countDown();
+
+        // Then
+        ExecutionException rejection = assertThrows(ExecutionException.class, rejectedQuote::get);
+        assertTrue(rejection.getCause() instanceof RejectedExecutionException);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> slowExit.get(10, TimeUnit.SECONDS));
+        assertEquals("No ticket found for vehicle SLOW", failure.getCause().getMessage());
+        queuedQuote.get(10, TimeUnit.SECONDS);
+        verify(parkingService, never()).quoteFare("REJECTED");
+        asyncParkingService.shutdown(1000);
+    }
+}
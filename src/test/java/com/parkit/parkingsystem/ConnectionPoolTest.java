@@ -0,0 +1,164 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.ConnectionPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ConnectionPoolTest {
+
+    private final List<Connection> physicalConnections = new ArrayList<>();
+    private final List<PreparedStatement> physicalStatements = new ArrayList<>();
+    private ConnectionPool connectionPool;
+
+    private ConnectionPool createPool(int maxSize, long maxWaitMillis, long idleTimeoutMillis, long validationIntervalMillis) {
+        return createPool(maxSize, maxWaitMillis, idleTimeoutMillis, validationIntervalMillis, 0);
+    }
+
+    private ConnectionPool createPool(int maxSize, long maxWaitMillis, long idleTimeoutMillis, long validationIntervalMillis,
+                                      int statementCacheSize) {
+        connectionPool = new ConnectionPool(() -> {
+            Connection connection = mock(Connection.class);
+            when(connection.getAutoCommit()).thenReturn(true);
+            when(connection.isValid(anyInt())).thenReturn(true);
+            when(connection.prepareStatement(anyString())).then(invocation -> {
+                PreparedStatement statement = mock(PreparedStatement.class);
+                physicalStatements.add(statement);
+                return statement;
+            });
+            physicalConnections.add(connection);
+            return connection;
+        }, maxSize, maxWaitMillis, idleTimeoutMillis, validationIntervalMillis, 1, statementCacheSize);
+        return connectionPool;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connectionPool.close();
+    }
+
+    @Test
+    public void closedConnectionIsReturnedToThePoolAndReused() throws Exception {
+        // Given
+        createPool(2, 100, 60000, 60000);
+
+        // When: a connection is borrowed, closed and borrowed again
+        Connection first = connectionPool.borrow();
+        first.close();
+        Connection second = connectionPool.borrow();
+        second.close();
+
+        // Then: only one physical connection was opened and it was never really closed
+        assertEquals(1, connectionPool.getCreatedCount());
+        assertEquals(2, connectionPool.getBorrowCount());
+        assertEquals(0, connectionPool.getActiveCount());
+        assertEquals(1, connectionPool.getIdleCount());
+        verify(physicalConnections.get(0), never()).close();
+    }
+
+    @Test
+    public void returnedConnectionCannotBeUsedAnymore() throws Exception {
+        createPool(1, 100, 60000, 60000);
+
+        Connection connection = connectionPool.borrow();
+        connection.close();
+
+        assertTrue(connection.isClosed());
+        assertThrows(SQLException.class, () -> connection.prepareStatement("select 1"));
+    }
+
+    @Test
+    public void borrowTimesOutWhenThePoolIsExhausted() throws Exception {
+        // Given: a pool of one connection already in use
+        createPool(1, 50, 60000, 60000);
+        Connection connection = connectionPool.borrow();
+
+        // When / Then
+        assertThrows(SQLException.class, () -> connectionPool.borrow());
+        assertEquals(1, connectionPool.getTimeoutCount());
+        assertEquals(1, connectionPool.getActiveCount());
+
+        connection.close();
+        connectionPool.borrow().close();
+        assertEquals(0, connectionPool.getActiveCount());
+    }
+
+    @Test
+    public void invalidConnectionIsReplacedOnBorrow() throws Exception {
+        // Given: validation on every borrow and a connection that went stale while idle
+        createPool(1, 100, 60000, 0);
+        connectionPool.borrow().close();
+        Thread.sleep(5);
+        when(physicalConnections.get(0).isValid(anyInt())).thenReturn(false);
+
+        // When
+        connectionPool.borrow().close();
+
+        // Then
+        assertEquals(2, connectionPool.getCreatedCount());
+        verify(physicalConnections.get(0)).close();
+    }
+
+    @Test
+    public void pendingTransactionIsRolledBackOnRelease() throws Exception {
+        createPool(1, 100, 60000, 60000);
+
+        Connection connection = connectionPool.borrow();
+        when(physicalConnections.get(0).getAutoCommit()).thenReturn(false);
+        connection.close();
+
+        verify(physicalConnections.get(0)).rollback();
+        verify(physicalConnections.get(0)).setAutoCommit(true);
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        createPool(2, 100, 20, 60000);
+
+        connectionPool.borrow().close();
+        Thread.sleep(200);
+
+        assertEquals(0, connectionPool.getIdleCount());
+        assertEquals(1, connectionPool.getEvictedCount());
+        verify(physicalConnections.get(0)).close();
+    }
+
+    @Test
+    public void preparedStatementsAreReusedAcrossLeases() throws Exception {
+        // Given: a cache of two statements per connection
+        createPool(1, 100, 60000, 60000, 2);
+
+        // When: the same statement is prepared on two leases, then two others push it out of the cache
+        Connection connection = connectionPool.borrow();
+        PreparedStatement first = connection.prepareStatement("select 1");
+        first.setInt(1, 1);
+        first.close();
+        connection.close();
+        connection = connectionPool.borrow();
+        PreparedStatement second = connection.prepareStatement("select 1");
+        second.close();
+        connection.prepareStatement("select 2").close();
+        connection.prepareStatement("select 3").close();
+        connection.close();
+
+        // Then: "select 1" was parsed once, its parameters cleared on return, and closed when evicted
+        Connection physicalConnection = physicalConnections.get(0);
+        verify(physicalConnection, times(1)).prepareStatement("select 1");
+        assertEquals(1, connectionPool.getStatementHitCount());
+        assertEquals(3, connectionPool.getStatementMissCount());
+        assertTrue(first.isClosed());
+        PreparedStatement physicalStatement = physicalStatements.get(0);
+        verify(physicalStatement, times(2)).clearParameters();
+        verify(physicalStatement).close();
+    }
+}
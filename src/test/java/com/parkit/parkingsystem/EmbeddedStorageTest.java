@@ -0,0 +1,52 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddedStorageTest {
+
+    private File storageDirectory;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        storageDirectory = Files.createTempDirectory("parking").toFile();
+        System.setProperty(DataBaseConfig.STORAGE_PROPERTY, "embedded");
+        System.setProperty(DataBaseConfig.STORAGE_PATH_PROPERTY, new File(storageDirectory, "parking").getPath());
+    }
+
+    @AfterEach
+    public void tearDownPerTest() {
+        System.clearProperty(DataBaseConfig.STORAGE_PROPERTY);
+        System.clearProperty(DataBaseConfig.STORAGE_PATH_PROPERTY);
+    }
+
+    @Test
+    public void embeddedStorageServesTheWorkflowsWithoutAServer() throws Exception {
+        // Given: DAOs on the default configuration, with the embedded storage selected
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        TicketDAO ticketDAO = new TicketDAO();
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+
+        // When
+        Ticket entryTicket = parkingService.processIncomingVehicle(ParkingType.BIKE, "EDGE");
+        parkingService.processExitingVehicle("EDGE");
+
+        // Then: the schema was created with the standard spots, and the visit is stored in the database file
+        assertEquals(4, entryTicket.getParkingSpot().getId());
+        ticketDAO.clearCache();
+        assertEquals(1, ticketDAO.getNbTicket("EDGE"));
+        assertTrue(new File(storageDirectory, "parking.mv.db").exists());
+    }
+}
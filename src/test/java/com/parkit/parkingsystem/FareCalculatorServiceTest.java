@@ -155,8 +155,8 @@ public class FareCalculatorServiceTest {
         // When
         fareCalculatorService.calculateFare(ticket);
 
-        // Then: The price should be 3/4 of the car rate per hour
-        assertEquals( (0.75 * Fare.CAR_RATE_PER_HOUR), ticket.getPrice());
+        // Then: The price should be 3/4 of the car rate per hour, rounded to the cent
+        assertEquals(1.13, ticket.getPrice());
     }
 
     @Test
@@ -209,7 +209,21 @@ public class FareCalculatorServiceTest {
 
         fareCalculatorService.calculateFare(ticket, true);
 
-        assertEquals( (0.95 * Fare.CAR_RATE_PER_HOUR) , ticket.getPrice());
+        // 95% of the car rate per hour, rounded to the cent
+        assertEquals(1.43, ticket.getPrice());
+    }
+
+    @Test
+    public void calculateFareCentsRoundsHalfUp(){
+        // Given: 45 minutes by car, 112.5 cents before rounding, and 106.875 cents with the discount
+        long outTime = System.currentTimeMillis();
+        long inTime = outTime - (45 * 60 * 1000);
+
+        // Then
+        assertEquals(113, fareCalculatorService.calculateFareCents(inTime, outTime, ParkingType.CAR, false));
+        assertEquals(107, fareCalculatorService.calculateFareCents(inTime, outTime, ParkingType.CAR, true));
+        assertEquals(0, fareCalculatorService.calculateFareCents(inTime, inTime + (30 * 60 * 1000), ParkingType.CAR, false));
+        assertThrows(IllegalArgumentException.class, () -> fareCalculatorService.calculateFareCents(outTime, inTime, ParkingType.CAR, false));
     }
 
     @Test
@@ -0,0 +1,89 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.config.TicketTableFixture;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.FareRepricingService;
+import com.parkit.parkingsystem.service.HourlyTicketAggregates;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FareRepricingServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private TicketTableFixture tickets;
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private FareRepricingService fareRepricingService;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        tickets = new TicketTableFixture("repricing");
+        dataBaseConfig = tickets.getDataBaseConfig();
+        // chunks of two tickets, two repriced at a time
+        fareRepricingService = new FareRepricingService(2, 2);
+        fareRepricingService.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Test
+    public void closedTicketsArePricedWithTheCurrentRates() throws Exception {
+        // Given: tickets priced with outdated rates, a recurring car, a bike and a vehicle still parked
+        long start = new Date().getTime() - 100 * HOUR;
+        tickets.insertTicket(1, "CAR1", 9.0, start, start + 2 * HOUR);
+        tickets.insertTicket(1, "CAR1", 9.0, start + 10 * HOUR, start + 12 * HOUR);
+        tickets.insertTicket(4, "BIKE1", 9.0, start, start + 3 * HOUR);
+        tickets.insertTicket(2, "CAR2", 0.0, start, start + 2 * HOUR);
+        tickets.insertTicket(3, "CAR3", 0.0, start, null);
+
+        // When
+        FareRepricingService.RepricingResult result = fareRepricingService.repriceAll();
+
+        // Then: the second visit of CAR1 gets the discount, CAR2 was not charged and is now
+        assertEquals(4, result.getScannedCount());
+        assertEquals(4, result.getUpdatedCount());
+        assertEquals(3.0, tickets.priceOf(1));
+        assertEquals(2.85, tickets.priceOf(2));
+        assertEquals(3.0, tickets.priceOf(3));
+        assertEquals(3.0, tickets.priceOf(4));
+        assertEquals(0.0, tickets.priceOf(5));
+    }
+
+    @Test
+    public void onlyTicketsClosedInThePeriodAreRepriced() throws Exception {
+        long start = new Date().getTime() - 100 * HOUR;
+        tickets.insertTicket(1, "CAR1", 9.0, start, start + 2 * HOUR);
+        tickets.insertTicket(2, "CAR2", 9.0, start + 50 * HOUR, start + 52 * HOUR);
+
+        FareRepricingService.RepricingResult result = fareRepricingService.reprice(
+                new Date(start + 40 * HOUR), new Date(start + 60 * HOUR));
+
+        assertEquals(1, result.getUpdatedCount());
+        assertEquals(9.0, tickets.priceOf(1));
+        assertEquals(3.0, tickets.priceOf(2));
+    }
+
+    @Test
+    public void hourlySummaryFollowsTheRepricedFares() throws Exception {
+        // Given: tickets already written to the hourly summary
+        long start = new Date().getTime() - 100 * HOUR;
+        tickets.insertTicket(1, "CAR1", 9.0, start, start + 2 * HOUR);
+        tickets.insertTicket(4, "BIKE1", 9.0, start, start + 3 * HOUR);
+        HourlyTicketAggregates hourlyTicketAggregates = new HourlyTicketAggregates();
+        hourlyTicketAggregates.dataBaseConfig = dataBaseConfig;
+        hourlyTicketAggregates.rebuild();
+        hourlyTicketAggregates.flush();
+
+        // When
+        fareRepricingService.repriceAll();
+
+        // Then
+        Map<ParkingType, HourlyTicketAggregates.Summary> summaries = hourlyTicketAggregates.getSummaries(new Date(start), new Date());
+        assertEquals(3.0, summaries.get(ParkingType.CAR).getRevenue());
+        assertEquals(3.0, summaries.get(ParkingType.BIKE).getRevenue());
+    }
+}
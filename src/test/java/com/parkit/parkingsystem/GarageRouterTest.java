@@ -0,0 +1,83 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.GarageRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class GarageRouterTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private GarageRouter garageRouter;
+
+    @AfterEach
+    public void tearDownPerTest() {
+        if (garageRouter != null) {
+            garageRouter.shutdown();
+        }
+    }
+
+    private static DataBaseConfig garageDataBase(int garageId) {
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("router-garage" + garageId, garageId);
+        try {
+            dataBaseConfig.createSchema(1, 1);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return dataBaseConfig;
+    }
+
+    @Test
+    public void eachGarageHasItsOwnSpotsAndTickets() throws Exception {
+        // Given: two garages of one car spot each
+        garageRouter = new GarageRouter(Arrays.asList(1, 2), GarageRouterTest::garageDataBase, 5000);
+        Date inTime = new Date(System.currentTimeMillis() - 2 * HOUR);
+
+        // When: the car spot of garage 1 is taken, then a car parks in garage 2
+        garageRouter.getGarage(1).getParkingService().processIncomingVehicle(ParkingType.CAR, "ABC", inTime);
+        Ticket ticket = garageRouter.getGarage(2).getParkingService().processIncomingVehicle(ParkingType.CAR, "DEF", inTime);
+        garageRouter.getGarage(1).getParkingService().processExitingVehicle("ABC");
+
+        // Then
+        assertEquals(1, ticket.getParkingSpot().getId());
+        assertEquals(2, ticket.getGarageId());
+        assertEquals(2, garageRouter.getGarage(2).getTicketDAO().getTicket("DEF").getGarageId());
+        assertNull(garageRouter.getGarage(1).getTicketDAO().getTicket("DEF"));
+        Map<Integer, OccupancySnapshot> occupancy = garageRouter.getOccupancySnapshots();
+        assertEquals(1, occupancy.get(1).getFreeSpots(ParkingType.CAR));
+        assertEquals(0, occupancy.get(2).getFreeSpots(ParkingType.CAR));
+        Map<Integer, Double> revenue = garageRouter.getRevenue(inTime, new Date(System.currentTimeMillis() + HOUR));
+        assertTrue(revenue.get(1) > 0);
+        assertEquals(0.0, revenue.get(2).doubleValue());
+    }
+
+    @Test
+    public void aFailingGarageIsLeftOutOfTheAggregates() throws Exception {
+        // Given: garage 3 whose database is unreachable
+        DataBaseConfig unreachableDataBase = mock(DataBaseConfig.class);
+        when(unreachableDataBase.getGarageId()).thenReturn(3);
+        when(unreachableDataBase.getConnection()).thenThrow(new SQLException("Connection refused"));
+        garageRouter = new GarageRouter(Arrays.asList(1, 3),
+                garageId -> (garageId == 3) ? unreachableDataBase : garageDataBase(garageId), 5000);
+
+        // When
+        Map<Integer, Double> revenue = garageRouter.getRevenue(new Date(0), new Date());
+
+        // Then: the other garages still answer
+        assertEquals(1, revenue.size());
+        assertEquals(0.0, revenue.get(1).doubleValue());
+    }
+}
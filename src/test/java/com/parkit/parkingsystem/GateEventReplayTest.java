@@ -0,0 +1,75 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.GateEventReplay;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GateEventReplayTest {
+
+    @Mock
+    private ParkingService parkingService;
+
+    @Test
+    public void eventsAreReplayedAtTheirOwnTimeInOrderPerVehicle() throws Exception {
+        // Given: two vehicles, an unreadable line and an exit refused by the workflow
+        lenient().when(parkingService.processExitingVehicle(eq("GHOST"), any(Date.class))).thenThrow(new Exception("No ticket found for vehicle GHOST"));
+        String events = "# registration number, type, direction, time\n"
+                + "ABC,CAR,ENTRY,2024-05-02T08:15:00\n"
+                + "DEF,bike,ENTRY,1714637700000\n"
+                + "ABC,CAR,EXIT,2024-05-02T10:15:00\n"
+                + "DEF,BIKE,LEAVE,1714637800000\n"
+                + "GHOST,CAR,EXIT,1714637900000\n";
+
+        // When
+        GateEventReplay.ReplayResult result = new GateEventReplay(parkingService, 4).replay(new StringReader(events));
+
+        // Then
+        assertEquals(5, result.getEventCount());
+        assertEquals(2, result.getFailedCount());
+        Date abcIn = Date.from(LocalDateTime.parse("2024-05-02T08:15:00").atZone(ZoneId.systemDefault()).toInstant());
+        Date abcOut = Date.from(LocalDateTime.parse("2024-05-02T10:15:00").atZone(ZoneId.systemDefault()).toInstant());
+        InOrder abc = inOrder(parkingService);
+        abc.verify(parkingService).processIncomingVehicle(ParkingType.CAR, "ABC", abcIn);
+        abc.verify(parkingService).processExitingVehicle("ABC", abcOut);
+        verify(parkingService).processIncomingVehicle(ParkingType.BIKE, "DEF", new Date(1714637700000L));
+        verify(parkingService, never()).processExitingVehicle(eq("DEF"), any(Date.class));
+    }
+
+    @Test
+    public void largeReplaysKeepEveryVehicleInOrder() throws Exception {
+        // Given: many vehicles entering then leaving, more events than the lanes can queue
+        StringBuilder events = new StringBuilder();
+        for (int vehicle = 0; vehicle < 5000; vehicle++) {
+            events.append("V").append(vehicle).append(",CAR,ENTRY,").append(1000L * vehicle).append('\n');
+        }
+        for (int vehicle = 0; vehicle < 5000; vehicle++) {
+            events.append("V").append(vehicle).append(",CAR,EXIT,").append(1000L * vehicle + 500).append('\n');
+        }
+        when(parkingService.processIncomingVehicle(any(ParkingType.class), anyString(), any(Date.class))).thenReturn(new Ticket());
+
+        // When
+        GateEventReplay.ReplayResult result = new GateEventReplay(parkingService, 3).replay(new StringReader(events.toString()));
+
+        // Then
+        assertEquals(10000, result.getEventCount());
+        assertEquals(0, result.getFailedCount());
+        InOrder v42 = inOrder(parkingService);
+        v42.verify(parkingService).processIncomingVehicle(ParkingType.CAR, "V42", new Date(42000));
+        v42.verify(parkingService).processExitingVehicle("V42", new Date(42500));
+    }
+}
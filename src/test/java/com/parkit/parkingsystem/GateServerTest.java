@@ -0,0 +1,132 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.GateServer;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GateServerTest {
+
+    @Mock
+    private ParkingService parkingService;
+
+    private GateServer gateServer;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        gateServer = new GateServer(parkingService, 0, 4);
+        gateServer.start();
+    }
+
+    @AfterEach
+    public void tearDownPerTest() throws Exception {
+        gateServer.stop(0);
+    }
+
+    private String post(String path, int expectedStatus) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + gateServer.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        assertEquals(expectedStatus, connection.getResponseCode());
+        InputStream in = (expectedStatus < 400) ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Ticket ticket(int parkingNumber) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setInTime(new Date(1000));
+        return ticket;
+    }
+
+    @Test
+    public void entryRequestParksTheVehicle() throws Exception {
+        when(parkingService.processIncomingVehicle(ParkingType.CAR, "ABC DEF")).thenReturn(ticket(3));
+
+        String body = post("/entry?type=car&reg=ABC%20DEF", 200);
+
+        assertEquals("spot=3\ninTime=1000\n", body);
+    }
+
+    @Test
+    public void invalidRequestsAreRejectedBeforeReachingTheService() throws Exception {
+        post("/entry?type=BOAT&reg=ABC", 400);
+        post("/exit?reg=", 400);
+        post("/entry?type=CAR&reg=ABC&garage=7", 404);
+
+        verifyNoMoreInteractions(parkingService);
+    }
+
+    @Test
+    public void conflictsAreAnsweredWithTheirReason() throws Exception {
+        when(parkingService.processExitingVehicle("ABC")).thenThrow(new ParkingService.ConflictException("No ticket found for vehicle ABC"));
+
+        String body = post("/exit?reg=ABC", 409);
+
+        assertEquals("error=No ticket found for vehicle ABC\n", body);
+    }
+
+    @Test
+    public void internalFailuresDoNotLeakTheirCause() throws Exception {
+        when(parkingService.processIncomingVehicle(ParkingType.CAR, "ABC")).thenThrow(new IllegalStateException("Connection refused by db.internal:3306"));
+
+        String body = post("/entry?type=CAR&reg=ABC", 500);
+
+        assertEquals("error=Internal error\n", body);
+    }
+
+    @Test
+    public void lanesAreServedConcurrently() throws Exception {
+        // Given: every entry waits until four of them are in progress at the same time
+        CountDownLatch inProgress = new CountDownLatch(4);
+        when(parkingService.processIncomingVehicle(eq(ParkingType.CAR), anyString())).then(invocation -> {
+            inProgress.countDown();
+            assertTrue(inProgress.await(10, TimeUnit.SECONDS));
+            return ticket(1);
+        });
+
+        // When
+        ExecutorService lanes = Executors.newFixedThreadPool(4);
+        List<Future<String>> answers = new ArrayList<>();
+        for (int lane = 0; lane < 4; lane++) {
+            String path = "/entry?type=CAR&reg=LANE" + lane;
+            answers.add(lanes.submit(() -> post(path, 200)));
+        }
+
+        // Then
+        for (Future<String> answer : answers) {
+            assertTrue(answer.get(20, TimeUnit.SECONDS).startsWith("spot=1"));
+        }
+        lanes.shutdown();
+    }
+}
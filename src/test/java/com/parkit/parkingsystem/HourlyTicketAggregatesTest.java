@@ -0,0 +1,120 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.config.TicketTableFixture;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.service.HourlyTicketAggregates;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HourlyTicketAggregatesTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private TicketTableFixture tickets;
+    private EmbeddedDataBaseConfig dataBaseConfig;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        tickets = new TicketTableFixture("aggregates");
+        dataBaseConfig = tickets.getDataBaseConfig();
+    }
+
+    private HourlyTicketAggregates startAggregates() throws Exception {
+        HourlyTicketAggregates hourlyTicketAggregates = new HourlyTicketAggregates();
+        hourlyTicketAggregates.dataBaseConfig = dataBaseConfig;
+        hourlyTicketAggregates.rebuild();
+        return hourlyTicketAggregates;
+    }
+
+    @Test
+    public void aggregatesAreBuiltFromTheTicketsThenFedByTheExits() throws Exception {
+        // Given: tickets closed before the aggregates existed
+        long now = new Date().getTime();
+        tickets.insertTicket(1, "CAR1", 1.5, now - 3 * DAY, now - 3 * DAY + 20 * 60 * 1000);
+        tickets.insertTicket(2, "CAR2", 4.5, now - 3 * DAY, now - 3 * DAY + 3 * HOUR);
+        tickets.insertTicket(4, "BIKE1", 1.0, now - 2 * DAY, now - 2 * DAY + 30 * HOUR);
+        HourlyTicketAggregates hourlyTicketAggregates = startAggregates();
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.dataBaseConfig = dataBaseConfig;
+        parkingService.hourlyTicketAggregates = hourlyTicketAggregates;
+
+        // When: the past hours are flushed, then a car leaves
+        assertEquals(3, hourlyTicketAggregates.flush());
+        parkingService.processIncomingVehicle(ParkingType.CAR, "CAR3", new Date(now - 2 * HOUR));
+        parkingService.processExitingVehicle("CAR3");
+
+        // Then
+        Map<ParkingType, HourlyTicketAggregates.Summary> summaries = hourlyTicketAggregates.getSummaries(new Date(now - 7 * DAY), new Date(now + HOUR));
+        HourlyTicketAggregates.Summary cars = summaries.get(ParkingType.CAR);
+        assertEquals(3, cars.getTicketCount());
+        assertEquals(6.0 + ticketDAO.getTicket("CAR3").getPrice(), cars.getRevenue(), 0.001);
+        assertArrayEquals(new long[]{1, 0, 0, 2, 0, 0, 0}, cars.getStayHistogram());
+        assertArrayEquals(new long[]{0, 0, 0, 0, 0, 0, 1}, summaries.get(ParkingType.BIKE).getStayHistogram());
+        assertEquals(30 * HOUR, summaries.get(ParkingType.BIKE).getAverageStayMillis());
+        assertEquals(3, tickets.count("ticket_hourly_summary"));
+    }
+
+    @Test
+    public void aggregatesSurviveARestart() throws Exception {
+        // Given: aggregates flushed once, then a ticket closed in an hour not over yet
+        long now = new Date().getTime();
+        tickets.insertTicket(1, "CAR1", 1.5, now - DAY - 2 * HOUR, now - DAY);
+        HourlyTicketAggregates hourlyTicketAggregates = startAggregates();
+        hourlyTicketAggregates.flush();
+        tickets.insertTicket(2, "CAR2", 3.0, now - HOUR, now + HOUR);
+
+        // When: the aggregates are started again, and flushed twice
+        HourlyTicketAggregates restartedAggregates = startAggregates();
+        restartedAggregates.flush();
+        restartedAggregates.flush();
+
+        // Then: the flushed hour is read from the table, the other one from the tickets closed since the checkpoint
+        HourlyTicketAggregates.Summary cars = restartedAggregates.getSummaries(new Date(now - 2 * DAY), new Date(now + 2 * HOUR)).get(ParkingType.CAR);
+        assertEquals(2, cars.getTicketCount());
+        assertEquals(4.5, cars.getRevenue(), 0.001);
+        assertEquals(1, tickets.count("ticket_hourly_summary"));
+        assertEquals(1.5, restartedAggregates.getRevenue(new Date(now - 2 * DAY), new Date(now - HOUR)), 0.001);
+    }
+
+    @Test
+    public void replayedExitsAreAddedToTheHoursAlreadyWritten() throws Exception {
+        // Given: a gate server that wrote the summary up to the current hour
+        long now = new Date().getTime();
+        HourlyTicketAggregates serverAggregates = startAggregates();
+        serverAggregates.flush();
+        HourlyTicketAggregates replayAggregates = new HourlyTicketAggregates();
+        replayAggregates.dataBaseConfig = dataBaseConfig;
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.dataBaseConfig = dataBaseConfig;
+        parkingService.hourlyTicketAggregates = replayAggregates;
+
+        // When: a visit of the day before and one ending in a later hour are replayed
+        parkingService.processIncomingVehicle(ParkingType.CAR, "CAR1", new Date(now - DAY - 2 * HOUR));
+        parkingService.processExitingVehicle("CAR1", new Date(now - DAY));
+        parkingService.processIncomingVehicle(ParkingType.CAR, "CAR2", new Date(now - HOUR));
+        parkingService.processExitingVehicle("CAR2", new Date(now + HOUR));
+        assertEquals(1, replayAggregates.flushHoursBeforeCheckpoint());
+
+        // Then: the old visit is in the summary, the later one is read from the tickets when the server starts again
+        assertEquals(1, serverAggregates.getSummaries(new Date(now - 2 * DAY), new Date(now + 2 * HOUR)).get(ParkingType.CAR).getTicketCount());
+        assertEquals(2, startAggregates().getSummaries(new Date(now - 2 * DAY), new Date(now + 2 * HOUR)).get(ParkingType.CAR).getTicketCount());
+    }
+}
@@ -0,0 +1,49 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.util.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinTheBucketPrecision() {
+        // Given: 1 to 10000 microseconds, once each
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            latencyHistogram.record(micros * 1000);
+        }
+
+        // When
+        LatencyHistogram.Snapshot snapshot = latencyHistogram.snapshot();
+
+        // Then
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000, snapshot.getPercentileNanos(50) / 1000.0, 5000 * 0.04);
+        assertEquals(9900, snapshot.getPercentileNanos(99) / 1000.0, 9900 * 0.04);
+        assertEquals(10000, latencyHistogram.getMaxMicros());
+        assertEquals(5000, latencyHistogram.getMeanMicros());
+    }
+
+    @Test
+    public void snapshotDifferenceOnlyHoldsTheLaterRecords() {
+        // Given: a slow period followed by a fast one
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            latencyHistogram.record(50_000_000);
+        }
+        LatencyHistogram.Snapshot earlier = latencyHistogram.snapshot();
+        for (int i = 0; i < 100; i++) {
+            latencyHistogram.record(1_000);
+        }
+
+        // When
+        LatencyHistogram.Snapshot period = latencyHistogram.snapshot().since(earlier);
+
+        // Then
+        assertEquals(100, period.getCount());
+        assertTrue(period.getPercentileNanos(99.9) < 1_100);
+        assertEquals(1_000, period.getMeanNanos());
+    }
+}
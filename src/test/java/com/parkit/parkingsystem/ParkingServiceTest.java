@@ -1,7 +1,9 @@
 package com.parkit.parkingsystem;
 
+import com.parkit.parkingsystem.config.DataBaseConfig;
 import com.parkit.parkingsystem.constants.ParkingType;
 import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
 import com.parkit.parkingsystem.dao.TicketDAO;
 import com.parkit.parkingsystem.model.ParkingSpot;
 import com.parkit.parkingsystem.model.Ticket;
@@ -15,6 +17,7 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -61,10 +64,10 @@ public class ParkingServiceTest {
 
         when(inputReaderUtil.readVehicleRegistrationNumber()).thenReturn("ABC");
         when(inputReaderUtil.readSelection()).thenReturn(1);
-        when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(2);
+        when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class), any(SpotAllocationStrategy.class), eq("ABC"))).thenReturn(2);
         when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(true);
         when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
-        when(ticketDAO.getNbTicket("ABC")).thenReturn(2);
+        when(ticketDAO.getNbTicketWithoutWaiting("ABC")).thenReturn(2);
         when(ticketDAO.getTicket(anyString())).thenReturn(ticket);
 
         //WHEN
@@ -73,7 +76,7 @@ public class ParkingServiceTest {
         //THEN
         verify(parkingSpotDAO, Mockito.times(1)).updateParking(any(ParkingSpot.class));
         verify(ticketDAO, Mockito.times(1)).saveTicket(any(Ticket.class));
-        verify(ticketDAO, Mockito.times(1)).getNbTicket("ABC");
+        verify(ticketDAO, Mockito.times(1)).getNbTicketWithoutWaiting("ABC");
 
         Ticket savedTicket = ticketDAO.getTicket("ABC");
 
@@ -139,14 +142,32 @@ public class ParkingServiceTest {
         assertEquals(parkingSpot, updatedTicket.getParkingSpot());
     }
 
+    @Test
+    public void exitIsNotCommittedWhenTheSpotCannotBeReleased() throws Exception {
+        // Given
+        Ticket ticket = setupTicket();
+        DataBaseConfig dataBaseConfig = mock(DataBaseConfig.class);
+        parkingService.dataBaseConfig = dataBaseConfig;
+        when(ticketDAO.getTicket("ABC")).thenReturn(ticket);
+        when(ticketDAO.updateTicket(any(Ticket.class))).thenReturn(true);
+        when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(false);
+
+        // When
+        assertThrows(Exception.class, () -> parkingService.processExitingVehicle("ABC"));
+
+        // Then: the closed ticket is rolled back with the spot
+        verify(dataBaseConfig, never()).commitTransaction();
+        verify(dataBaseConfig).rollbackTransaction();
+    }
+
     @Test
     public void testGetNextParkingNumberIfAvailable () throws Exception {
 
         when(inputReaderUtil.readSelection()).thenReturn(1);
-        when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR)).thenReturn(1);
+        when(parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR, SpotAllocationStrategy.LOWEST_NUMBER, "ABC")).thenReturn(1);
 
         //when
-        ParkingSpot parkingSpot = parkingService.getNextParkingNumberIfAvailable();
+        ParkingSpot parkingSpot = parkingService.getNextParkingNumberIfAvailable("ABC");
 
         //then
         assertEquals(1, parkingSpot.getId());
@@ -159,9 +180,9 @@ public class ParkingServiceTest {
     public void testGetNextParkingNumberIfAvailableParkingNumberNotFound () {
 
         when(inputReaderUtil.readSelection()).thenReturn(1);
-        when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class))).thenReturn(-1);
+        when(parkingSpotDAO.getNextAvailableSlot(any(ParkingType.class), any(SpotAllocationStrategy.class), eq("ABC"))).thenReturn(-1);
 
-        Exception exception = assertThrows(Exception.class, () -> parkingService.getNextParkingNumberIfAvailable());
+        Exception exception = assertThrows(Exception.class, () -> parkingService.getNextParkingNumberIfAvailable("ABC"));
         assertEquals("Error fetching parking number from DB. Parking slots might be full", exception.getMessage());
 
     }
@@ -171,9 +192,55 @@ public class ParkingServiceTest {
 
         when(inputReaderUtil.readSelection()).thenReturn(3);
 
-        Exception exception = assertThrows(IllegalArgumentException.class, () -> parkingService.getNextParkingNumberIfAvailable());
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> parkingService.getNextParkingNumberIfAvailable("ABC"));
         assertEquals("Entered input is invalid", exception.getMessage());
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void quoteFareLeavesTheTicketOpen() throws Exception {
+        // Given: a car parked for an hour
+        when(ticketDAO.getTicket("ABC")).thenReturn(setupTicket());
+        when(ticketDAO.getNbTicket("ABC")).thenReturn(0);
+
+        // When
+        Ticket quote = parkingService.quoteFare("ABC");
+
+        // Then
+        assertEquals(1.5, quote.getPrice());
+        verify(ticketDAO, never()).updateTicket(any(Ticket.class));
+        verify(parkingSpotDAO, never()).updateParking(any(ParkingSpot.class));
+    }
+
+    @Test
+    public void spotsLostToOtherGatesDoNotExhaustTheAllocation() throws Exception {
+        // Given: other gates claim each of the first 40 spots just before this one
+        AtomicInteger nextParkingNumber = new AtomicInteger(1);
+        when(parkingSpotDAO.getNextAvailableSlot(eq(ParkingType.CAR), any(SpotAllocationStrategy.class), eq("ABC")))
+                .thenAnswer(invocation -> nextParkingNumber.getAndIncrement());
+        when(parkingSpotDAO.updateParking(any(ParkingSpot.class)))
+                .thenAnswer(invocation -> invocation.<ParkingSpot>getArgument(0).getId() > 40);
+        when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
+
+        // When
+        Ticket ticket = parkingService.processIncomingVehicle(ParkingType.CAR, "ABC");
+
+        // Then
+        assertEquals(41, ticket.getParkingSpot().getId());
+    }
+
+    @Test
+    public void spotOfferedAgainAfterEachErrorEndsTheAllocation() {
+        // Given: a claim failing on a database error, which leaves the spot free in the index
+        when(parkingSpotDAO.getNextAvailableSlot(eq(ParkingType.CAR), any(SpotAllocationStrategy.class), eq("ABC"))).thenReturn(1);
+        when(parkingSpotDAO.updateParking(any(ParkingSpot.class))).thenReturn(false);
+
+        // When
+        Exception exception = assertThrows(Exception.class, () -> parkingService.processIncomingVehicle(ParkingType.CAR, "ABC"));
+
+        // Then
+        assertEquals("Error allocating parking spot. Parking slots might be full", exception.getMessage());
+        verify(parkingSpotDAO, times(32)).updateParking(any(ParkingSpot.class));
+        verify(ticketDAO, never()).saveTicket(any(Ticket.class));
+    }
+}
@@ -0,0 +1,184 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import com.parkit.parkingsystem.util.InputReaderUtil;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParkingSpotAllocationStressTest {
+
+    private static final int CAR_SPOTS = 500;
+    private static final int SPOTS_TAKEN_ELSEWHERE = 50;
+    private static final int GATES = 16;
+    private static final int VEHICLES_PER_GATE = 25;
+
+    @Test
+    public void concurrentGatesNeverDoubleBookASpot() throws Exception {
+        // Given: a garage shared by many gates, the index warmed up, then some spots taken by another process
+        ParkingTable parkingTable = new ParkingTable(CAR_SPOTS);
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = parkingTable;
+        assertEquals(1, parkingSpotDAO.getNextAvailableSlot(ParkingType.CAR));
+        for (int parkingNumber = 1; parkingNumber <= SPOTS_TAKEN_ELSEWHERE; parkingNumber++) {
+            parkingTable.available[parkingNumber].set(false);
+        }
+
+        TicketDAO ticketDAO = mock(TicketDAO.class);
+        when(ticketDAO.saveTicket(any(Ticket.class))).thenReturn(true);
+        AtomicInteger vehicleCounter = new AtomicInteger();
+        InputReaderUtil inputReaderUtil = new InputReaderUtil() {
+            @Override
+            public int readSelection() {
+                return 1;
+            }
+
+            @Override
+            public String readVehicleRegistrationNumber() {
+                return "CAR-" + vehicleCounter.incrementAndGet();
+            }
+        };
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+
+        // When: every gate lets its vehicles in at the same time
+        ExecutorService gates = Executors.newFixedThreadPool(GATES);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int gate = 0; gate < GATES; gate++) {
+            results.add(gates.submit(() -> {
+                start.await();
+                for (int vehicle = 0; vehicle < VEHICLES_PER_GATE; vehicle++) {
+                    parkingService.processIncomingVehicle();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        gates.shutdown();
+
+        // Then: every vehicle got its own spot and no spot was claimed twice
+        int totalClaims = 0;
+        for (int parkingNumber = 1; parkingNumber <= CAR_SPOTS; parkingNumber++) {
+            int claims = parkingTable.claims[parkingNumber].get();
+            assertTrue(claims <= 1, "Spot " + parkingNumber + " was booked " + claims + " times");
+            if (parkingNumber <= SPOTS_TAKEN_ELSEWHERE) {
+                assertEquals(0, claims);
+            }
+            totalClaims += claims;
+        }
+        assertEquals(GATES * VEHICLES_PER_GATE, totalClaims);
+    }
+
+    // in-memory stand-in for the parking table, honouring the conditional claim statement
+    private static class ParkingTable extends DataBaseConfig {
+        private final AtomicBoolean[] available;
+        private final AtomicInteger[] claims;
+
+        private ParkingTable(int spots) {
+            available = new AtomicBoolean[spots + 1];
+            claims = new AtomicInteger[spots + 1];
+            for (int parkingNumber = 1; parkingNumber <= spots; parkingNumber++) {
+                available[parkingNumber] = new AtomicBoolean(true);
+                claims[parkingNumber] = new AtomicInteger();
+            }
+        }
+
+        @Override
+        public Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> method.getName().equals("prepareStatement")
+                            ? prepareStatement((String) args[0]) : defaultValue(method.getReturnType()));
+        }
+
+        private PreparedStatement prepareStatement(String sql) {
+            Map<Integer, Object> parameters = new HashMap<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setInt":
+                            case "setBoolean":
+                                parameters.put((Integer) args[0], args[1]);
+                                return null;
+                            case "executeUpdate":
+                                return executeUpdate(sql, parameters);
+                            case "executeQuery":
+                                return selectParkingSpots();
+                            default:
+                                return defaultValue(method.getReturnType());
+                        }
+                    });
+        }
+
+        private int executeUpdate(String sql, Map<Integer, Object> parameters) {
+            if (sql.equals(DBConstants.CLAIM_PARKING_SPOT)) {
+                int parkingNumber = (Integer) parameters.get(1);
+                if (available[parkingNumber].compareAndSet(true, false)) {
+                    claims[parkingNumber].incrementAndGet();
+                    return 1;
+                }
+                return 0;
+            }
+            available[(Integer) parameters.get(2)].set((Boolean) parameters.get(1));
+            return 1;
+        }
+
+        private ResultSet selectParkingSpots() {
+            AtomicInteger row = new AtomicInteger();
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return row.incrementAndGet() < available.length;
+                            case "getInt":
+                                return row.get();
+                            case "getBoolean":
+                                return available[row.get()].get();
+                            case "getString":
+                                return ParkingType.CAR.name();
+                            default:
+                                return defaultValue(method.getReturnType());
+                        }
+                    });
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+}
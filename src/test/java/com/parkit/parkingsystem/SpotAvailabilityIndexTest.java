@@ -0,0 +1,276 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
+import com.parkit.parkingsystem.dao.SpotAvailabilityIndex;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.VisitCounterCache;
+import com.parkit.parkingsystem.model.OccupancySnapshot;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpotAvailabilityIndexTest {
+
+    private SpotAvailabilityIndex availabilityIndex;
+
+    @BeforeEach
+    public void setUpPerTest() {
+        availabilityIndex = new SpotAvailabilityIndex(Arrays.asList(
+                new ParkingSpot(1, ParkingType.CAR, true),
+                new ParkingSpot(2, ParkingType.CAR, true),
+                new ParkingSpot(3, ParkingType.CAR, true),
+                new ParkingSpot(4, ParkingType.BIKE, true),
+                new ParkingSpot(5, ParkingType.BIKE, false)));
+    }
+
+    @Test
+    public void lowestAvailableSpotIsReturnedPerType() {
+        assertEquals(1, availabilityIndex.getLowestAvailable(ParkingType.CAR));
+        assertEquals(4, availabilityIndex.getLowestAvailable(ParkingType.BIKE));
+        assertEquals(3, availabilityIndex.getAvailableCount(ParkingType.CAR));
+        assertEquals(1, availabilityIndex.getAvailableCount(ParkingType.BIKE));
+    }
+
+    @Test
+    public void updatedSpotsAreTakenIntoAccount() {
+        // When: spot 1 is taken and spot 4 is taken
+        availabilityIndex.setAvailable(1, false);
+        availabilityIndex.setAvailable(4, false);
+
+        // Then
+        assertEquals(2, availabilityIndex.getLowestAvailable(ParkingType.CAR));
+        assertEquals(0, availabilityIndex.getLowestAvailable(ParkingType.BIKE));
+
+        // When: spot 1 is freed again
+        availabilityIndex.setAvailable(1, true);
+
+        // Then
+        assertEquals(1, availabilityIndex.getLowestAvailable(ParkingType.CAR));
+    }
+
+    // levels of 10 car spots numbered from 100 times the level, on levels 0 to 2
+    private static SpotAvailabilityIndex leveledIndex() {
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int level = 0; level < 3; level++) {
+            for (int parkingNumber = level * 100 + 1; parkingNumber <= level * 100 + 10; parkingNumber++) {
+                ParkingSpot parkingSpot = new ParkingSpot(parkingNumber, ParkingType.CAR, true);
+                parkingSpot.setLevel(level);
+                parkingSpots.add(parkingSpot);
+            }
+        }
+        return new SpotAvailabilityIndex(parkingSpots);
+    }
+
+    @Test
+    public void nearestAvailableSpotIsOnTheSameLevelThenTheClosestOne() {
+        // Given
+        SpotAvailabilityIndex index = leveledIndex();
+        for (int parkingNumber = 104; parkingNumber <= 108; parkingNumber++) {
+            index.setAvailable(parkingNumber, false);
+        }
+
+        // Then: around spot 106, the free spots 103 and 109 are as close and the higher one wins, then level 1 fills up
+        assertEquals(109, index.getNearestAvailable(ParkingType.CAR, 106));
+        for (int parkingNumber = 101; parkingNumber <= 110; parkingNumber++) {
+            index.setAvailable(parkingNumber, false);
+        }
+        index.setAvailable(6, false);
+        assertEquals(206, index.getNearestAvailable(ParkingType.CAR, 106));
+        assertEquals(0, index.getNearestAvailable(ParkingType.BIKE, 106));
+    }
+
+    @Test
+    public void nearestAvailableSpotMatchesAFullScan() {
+        // Given: a single level garage taken at random
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int parkingNumber = 1; parkingNumber <= 3000; parkingNumber++) {
+            parkingSpots.add(new ParkingSpot(parkingNumber, ParkingType.CAR, true));
+        }
+        SpotAvailabilityIndex index = new SpotAvailabilityIndex(parkingSpots);
+        Random random = new Random(42);
+        boolean[] available = new boolean[3001];
+        Arrays.fill(available, true);
+
+        for (int i = 0; i < 20000; i++) {
+            // When
+            int parkingNumber = 1 + random.nextInt(3000);
+            available[parkingNumber] = random.nextInt(4) == 0;
+            index.setAvailable(parkingNumber, available[parkingNumber]);
+
+            // Then
+            int anchor = 1 + random.nextInt(3000);
+            int nearest = 0;
+            for (int distance = 0; distance < 3000 && nearest == 0; distance++) {
+                if (anchor + distance <= 3000 && available[anchor + distance]) {
+                    nearest = anchor + distance;
+                } else if (anchor - distance >= 1 && available[anchor - distance]) {
+                    nearest = anchor - distance;
+                }
+            }
+            assertEquals(nearest, index.getNearestAvailable(ParkingType.CAR, anchor));
+            int lowest = 0;
+            for (int number = 3000; number >= 1; number--) {
+                lowest = available[number] ? number : lowest;
+            }
+            assertEquals(lowest, index.getLowestAvailable(ParkingType.CAR));
+        }
+    }
+
+    @Test
+    public void vehiclesAreSpreadOverTheLevels() {
+        // Given
+        SpotAvailabilityIndex index = leveledIndex();
+        index.setAvailable(1, false);
+
+        // When: three vehicles are given a spot of the least occupied level
+        List<Integer> parkingNumbers = new ArrayList<>();
+        for (int vehicle = 0; vehicle < 3; vehicle++) {
+            int parkingNumber = SpotAllocationStrategy.SPREAD_BY_LEVEL.selectSpot(index, ParkingType.CAR, null);
+            index.claim(parkingNumber);
+            parkingNumbers.add(parkingNumber);
+        }
+
+        // Then
+        assertEquals(Arrays.asList(101, 201, 2), parkingNumbers);
+    }
+
+    @Test
+    public void regularsAreGivenTheSpotOfTheirLastVisit() {
+        // Given: ABC parked in 105 last time, DEF is known to have never parked and GHI is not counted yet
+        SpotAvailabilityIndex index = leveledIndex();
+        TicketDAO ticketDAO = mock(TicketDAO.class);
+        VisitCounterCache visitCounterCache = new VisitCounterCache(10);
+        visitCounterCache.put("ABC", 1);
+        visitCounterCache.put("DEF", 0);
+        when(ticketDAO.getVisitCounterCache()).thenReturn(visitCounterCache);
+        Ticket lastTicket = new Ticket();
+        lastTicket.setParkingSpot(new ParkingSpot(105, ParkingType.CAR, false));
+        lastTicket.setOutTime(new Date());
+        when(ticketDAO.getTicket("ABC")).thenReturn(lastTicket);
+        SpotAllocationStrategy strategy = SpotAllocationStrategy.forName("regulars,nearest:201", ticketDAO);
+
+        // Then: the last spot is looked up once, then remembered
+        assertEquals(105, strategy.selectSpot(index, ParkingType.CAR, "ABC"));
+        index.setAvailable(105, false);
+        assertEquals(106, strategy.selectSpot(index, ParkingType.CAR, "ABC"));
+        assertEquals(201, strategy.selectSpot(index, ParkingType.CAR, "DEF"));
+        assertEquals(201, strategy.selectSpot(index, ParkingType.CAR, "GHI"));
+        verify(ticketDAO, times(1)).getTicket("ABC");
+        verify(ticketDAO, never()).getTicket("DEF");
+        verify(ticketDAO, never()).getTicket("GHI");
+    }
+
+    @Test
+    public void occupancyCountersFollowEveryChange() {
+        // When: a spot is claimed, another one taken then freed, one freed twice, and the table drifted
+        availabilityIndex.claim(1);
+        availabilityIndex.claim(1);
+        availabilityIndex.setAvailable(2, false);
+        availabilityIndex.setAvailable(2, true);
+        availabilityIndex.setAvailable(4, true);
+        availabilityIndex.reconcile(Arrays.asList(new ParkingSpot(5, ParkingType.BIKE, true)), System.currentTimeMillis() + 1);
+
+        // Then
+        OccupancySnapshot occupancySnapshot = availabilityIndex.getOccupancyCounters().snapshot();
+        assertEquals(2, occupancySnapshot.getFreeSpots(ParkingType.CAR));
+        assertEquals(3, occupancySnapshot.getTotalSpots(ParkingType.CAR));
+        assertEquals(2, occupancySnapshot.getFreeSpots(ParkingType.BIKE));
+        assertEquals(2, occupancySnapshot.getTotalSpots(ParkingType.BIKE));
+    }
+
+    @Test
+    public void reconcileFixesDriftedSpots() {
+        // Given: the table says spot 1 is taken and spot 5 is free
+        List<ParkingSpot> snapshot = Arrays.asList(
+                new ParkingSpot(1, ParkingType.CAR, false),
+                new ParkingSpot(2, ParkingType.CAR, true),
+                new ParkingSpot(3, ParkingType.CAR, true),
+                new ParkingSpot(4, ParkingType.BIKE, true),
+                new ParkingSpot(5, ParkingType.BIKE, true));
+
+        // When
+        int corrections = availabilityIndex.reconcile(snapshot, System.currentTimeMillis() + 1);
+
+        // Then
+        assertEquals(2, corrections);
+        assertEquals(2, availabilityIndex.getLowestAvailable(ParkingType.CAR));
+        assertEquals(2, availabilityIndex.getAvailableCount(ParkingType.BIKE));
+    }
+
+    @Test
+    public void reconcileSkipsSpotsUpdatedAfterTheSnapshot() {
+        long snapshotTime = System.currentTimeMillis() - 1000;
+        availabilityIndex.setAvailable(1, false);
+
+        int corrections = availabilityIndex.reconcile(Arrays.asList(new ParkingSpot(1, ParkingType.CAR, true)), snapshotTime);
+
+        assertEquals(0, corrections);
+        assertEquals(2, availabilityIndex.getLowestAvailable(ParkingType.CAR));
+    }
+
+    @Test
+    public void reconcileReportsUnknownSpots() {
+        int corrections = availabilityIndex.reconcile(Arrays.asList(new ParkingSpot(6, ParkingType.CAR, true)), System.currentTimeMillis());
+
+        assertEquals(-1, corrections);
+    }
+
+    @Test
+    public void concurrentClaimsNeverReturnTheSameSpotTwice() throws Exception {
+        // Given: a large garage
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int parkingNumber = 1; parkingNumber <= 5000; parkingNumber++) {
+            parkingSpots.add(new ParkingSpot(parkingNumber, ParkingType.CAR, true));
+        }
+        SpotAvailabilityIndex largeIndex = new SpotAvailabilityIndex(parkingSpots);
+
+        // When: many threads claim spots until the garage is full
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        for (int thread = 0; thread < 16; thread++) {
+            results.add(executorService.submit(() -> {
+                List<Integer> claimed = new ArrayList<>();
+                start.await();
+                int parkingNumber;
+                while ((parkingNumber = largeIndex.claimLowestAvailable(ParkingType.CAR)) > 0) {
+                    claimed.add(parkingNumber);
+                }
+                return claimed;
+            }));
+        }
+        start.countDown();
+        Set<Integer> allClaimed = new HashSet<>();
+        int claimCount = 0;
+        for (Future<List<Integer>> result : results) {
+            List<Integer> claimed = result.get();
+            claimCount += claimed.size();
+            allClaimed.addAll(claimed);
+        }
+        executorService.shutdown();
+
+        // Then: each spot was handed out exactly once
+        assertEquals(5000, claimCount);
+        assertEquals(5000, allClaimed.size());
+        assertEquals(0, largeIndex.getAvailableCount(ParkingType.CAR));
+        assertEquals(0, largeIndex.getOccupancyCounters().getFreeCount(ParkingType.CAR));
+        assertFalse(largeIndex.claim(1));
+    }
+}
@@ -0,0 +1,134 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.Tariff;
+import com.parkit.parkingsystem.service.TariffEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TariffTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static long at(String localDateTime) {
+        return LocalDateTime.parse(localDateTime).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static Tariff compile(String... keyValues) {
+        Properties definition = new Properties();
+        definition.setProperty("zone", "UTC");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            definition.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return Tariff.compile(definition);
+    }
+
+    @Test
+    public void standardTariffPricesLikeTheFareConstants() {
+        Tariff tariff = Tariff.standard();
+        long inTime = at("2024-03-14T10:17:00");
+
+        assertEquals(150, tariff.priceCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+        assertEquals(113, tariff.priceCents(inTime, inTime + 45 * 60 * 1000, ParkingType.CAR, false));
+        assertEquals(143, tariff.priceCents(inTime, inTime + HOUR, ParkingType.CAR, true));
+        assertEquals(2400, tariff.priceCents(inTime, inTime + 24 * HOUR, ParkingType.BIKE, false));
+        assertEquals(0, tariff.priceCents(inTime, inTime + 30 * 60 * 1000, ParkingType.BIKE, false));
+    }
+
+    @Test
+    public void hoursOfTheWeekAreChargedAtTheirOwnRate() {
+        // Given: peak hours on weekdays, a cheaper Saturday and a narrower range overriding the weekend one
+        Tariff tariff = compile("CAR.rate", "150",
+                "CAR.rate.MON-FRI.8-10", "300",
+                "CAR.rate.SAT-SUN.0-24", "100",
+                "CAR.rate.SAT.12-13", "0");
+
+        // Then: 2024-03-15 is a Friday, 2024-03-16 a Saturday
+        assertEquals(300 + 150, tariff.priceCents(at("2024-03-15T09:00:00"), at("2024-03-15T11:00:00"), ParkingType.CAR, false));
+        assertEquals(150 + 100, tariff.priceCents(at("2024-03-15T23:00:00"), at("2024-03-16T01:00:00"), ParkingType.CAR, false));
+        assertEquals(100 + 0 + 100, tariff.priceCents(at("2024-03-16T11:00:00"), at("2024-03-16T14:00:00"), ParkingType.CAR, false));
+        // a full week, whatever day it starts
+        assertEquals(5 * (22 * 150 + 2 * 300) + 23 * 100 + 24 * 100, tariff.priceCents(at("2024-03-13T17:30:00"), at("2024-03-20T17:30:00"), ParkingType.CAR, false));
+    }
+
+    @Test
+    public void hoursOfTheWeekFollowTheDaylightSavingChangesOfTheZone() {
+        // Given: a peak from 8 to 9 local time in Paris, UTC+1 in winter and UTC+2 in summer
+        Tariff tariff = compile("zone", "Europe/Paris", "CAR.rate", "100", "CAR.rate.MON-SUN.8-9", "1000");
+
+        // Then: the peak moves an hour earlier in UTC across each change, also outside the tabulated years
+        assertEquals(1000, tariff.priceCents(at("2024-03-30T07:00:00"), at("2024-03-30T08:00:00"), ParkingType.CAR, false));
+        assertEquals(1000, tariff.priceCents(at("2024-03-31T06:00:00"), at("2024-03-31T07:00:00"), ParkingType.CAR, false));
+        assertEquals(1000, tariff.priceCents(at("2024-10-27T07:00:00"), at("2024-10-27T08:00:00"), ParkingType.CAR, false));
+        assertEquals(1000, tariff.priceCents(at("2150-07-01T06:00:00"), at("2150-07-01T07:00:00"), ParkingType.CAR, false));
+        assertEquals(100, tariff.priceCents(at("2024-03-31T07:00:00"), at("2024-03-31T08:00:00"), ParkingType.CAR, false));
+    }
+
+    @Test
+    public void durationTiersApplyFromTheStartOfTheStay() {
+        Tariff tariff = compile("BIKE.rate", "100", "BIKE.tier.2", "50", "BIKE.tier.4", "0", "discountPercent", "90");
+        long inTime = at("2024-03-14T10:00:00");
+
+        assertEquals(100 + 100 + 50, tariff.priceCents(inTime, inTime + 3 * HOUR, ParkingType.BIKE, false));
+        assertEquals(300, tariff.priceCents(inTime, inTime + 10 * HOUR, ParkingType.BIKE, false));
+        assertEquals(270, tariff.priceCents(inTime, inTime + 10 * HOUR, ParkingType.BIKE, true));
+        assertThrows(IllegalArgumentException.class, () -> tariff.priceCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+    }
+
+    @Test
+    public void tariffFileIsReloadedWhenChanged() throws Exception {
+        // Given: an engine on a tariff file
+        File tariffFile = File.createTempFile("tariff", ".properties");
+        tariffFile.deleteOnExit();
+        write(tariffFile, "CAR.rate=150\n");
+        TariffEngine tariffEngine = new TariffEngine(tariffFile);
+        FareCalculatorService fareCalculatorService = new FareCalculatorService(tariffEngine);
+        long inTime = at("2024-03-14T10:00:00");
+        assertEquals(150, fareCalculatorService.calculateFareCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+
+        // When: the rate changes, then an invalid definition is saved
+        write(tariffFile, "CAR.rate=200\n");
+        tariffFile.setLastModified(tariffFile.lastModified() + 1000);
+        assertTrue(tariffEngine.reloadIfModified());
+        write(tariffFile, "CAR.rate=two euros\n");
+        tariffFile.setLastModified(tariffFile.lastModified() + 2000);
+
+        // Then: the new rate applies, and stays in use after the invalid change
+        assertFalse(tariffEngine.reloadIfModified());
+        assertEquals(200, fareCalculatorService.calculateFareCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+    }
+
+    @Test
+    public void garagesWithTheirOwnFileAreNotPricedWithTheDefaultOne() throws Exception {
+        // Given: a default tariff and one for garage 2
+        File tariffDirectory = Files.createTempDirectory("tariffs").toFile();
+        File tariffFile = new File(tariffDirectory, "tariff.properties");
+        write(tariffFile, "CAR.rate=150\n");
+        write(new File(tariffDirectory, "tariff.2.properties"), "CAR.rate=300\n");
+        long inTime = at("2024-03-14T10:00:00");
+
+        // When
+        TariffEngine garage2 = new TariffEngine(TariffEngine.garageTariffFile(tariffFile, 2));
+        TariffEngine garage3 = new TariffEngine(TariffEngine.garageTariffFile(tariffFile, 3));
+
+        // Then
+        assertEquals(300, new FareCalculatorService(garage2).calculateFareCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+        assertEquals(150, new FareCalculatorService(garage3).calculateFareCents(inTime, inTime + HOUR, ParkingType.CAR, false));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.config.TicketTableFixture;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.TicketArchiver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketArchiverTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private TicketTableFixture tickets;
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private TicketArchiver ticketArchiver;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        tickets = new TicketTableFixture("archiver");
+        dataBaseConfig = tickets.getDataBaseConfig();
+        // two tickets moved per transaction, so archiving takes several
+        ticketArchiver = new TicketArchiver(2);
+        ticketArchiver.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Test
+    public void ticketsClosedBeforeTheRetentionAreArchived() throws Exception {
+        // Given: old visits of CAR1 and CAR2, a recent visit of CAR1, and CAR3 parked for months
+        long now = new Date().getTime();
+        tickets.insertTicket(1, "CAR1", 1.5, now - 100 * DAY, now - 100 * DAY + HOUR);
+        tickets.insertTicket(2, "CAR2", 1.5, now - 90 * DAY, now - 90 * DAY + HOUR);
+        tickets.insertTicket(3, "CAR3", 1.5, now - 80 * DAY, null);
+        tickets.insertTicket(1, "CAR2", 1.5, now - 70 * DAY, now - 70 * DAY + HOUR);
+        tickets.insertTicket(1, "CAR1", 1.5, now - 2 * DAY, now - 2 * DAY + HOUR);
+
+        // When
+        long archivedCount = ticketArchiver.archive(30);
+
+        // Then: the open ticket and the recent one stay
+        assertEquals(3, archivedCount);
+        assertEquals(2, tickets.count("ticket"));
+        assertEquals(3, tickets.count("ticket_archive"));
+        assertEquals(0, ticketArchiver.archive(30));
+    }
+
+    @Test
+    public void archivedTicketsAreStillCountedAndFound() throws Exception {
+        // Given
+        long now = new Date().getTime();
+        tickets.insertTicket(1, "CAR1", 1.5, now - 100 * DAY, now - 100 * DAY + HOUR);
+        tickets.insertTicket(2, "CAR1", 1.5, now - 60 * DAY, now - 60 * DAY + HOUR);
+        tickets.insertTicket(1, "CAR1", 1.5, now - 2 * DAY, now - 2 * DAY + HOUR);
+
+        // When
+        ticketArchiver.archive(30);
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+
+        // Then: the regular keeps its visit count, and a vehicle only seen in the archive gets its last visit
+        assertEquals(3, ticketDAO.getNbTicket("CAR1"));
+        assertEquals(1, ticketDAO.getTicket("CAR1").getParkingSpot().getId());
+        ticketArchiver.archive(1);
+        Ticket lastTicket = ticketDAO.getTicket("CAR1");
+        assertEquals(3, lastTicket.getId());
+        assertNotNull(lastTicket.getOutTime());
+        ticketDAO.clearCache();
+        assertEquals(3, ticketDAO.getNbTicket("CAR1"));
+    }
+}
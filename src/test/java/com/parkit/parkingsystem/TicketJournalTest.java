@@ -0,0 +1,253 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.dao.TicketJournal;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TicketJournalTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private File journalFile;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("journal");
+        dataBaseConfig.createSchema(3, 2);
+        journalFile = new File(Files.createTempDirectory("journal").toFile(), "tickets.journal");
+    }
+
+    private Ticket ticket(int parkingNumber, String vehicleRegNumber, long inTime, Long outTime) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(parkingNumber, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(new Date(inTime));
+        if (outTime != null) {
+            ticket.setOutTime(new Date(outTime));
+            ticket.setPrice(3.0);
+        }
+        return ticket;
+    }
+
+    private String tickets() throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        ResultSet rs = con.createStatement().executeQuery("select VEHICLE_REG_NUMBER, PRICE, OUT_TIME is null from ticket order by ID");
+        StringBuilder tickets = new StringBuilder();
+        while (rs.next()) {
+            tickets.append(rs.getString(1)).append(rs.getBoolean(3) ? " open" : " " + rs.getDouble(2)).append(';');
+        }
+        dataBaseConfig.closeConnection(con);
+        return tickets.toString();
+    }
+
+    private boolean isAvailable(int parkingNumber) throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        PreparedStatement ps = con.prepareStatement("select AVAILABLE from parking where PARKING_NUMBER = ?");
+        ps.setInt(1, parkingNumber);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        boolean available = rs.getBoolean(1);
+        dataBaseConfig.closeConnection(con);
+        return available;
+    }
+
+    @Test
+    public void journaledWritesAreReplayedIntoTheTicketTable() throws Exception {
+        // Given
+        TicketJournal ticketJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+
+        // When: an entry, its exit and another entry
+        ticketJournal.appendSave(ticket(1, "ABC", inTime, null));
+        ticketJournal.appendUpdate(ticket(1, "ABC", inTime, inTime + 2 * HOUR));
+        ticketJournal.appendSave(ticket(2, "DEF", inTime, null));
+        ticketJournal.flush();
+
+        // Then
+        assertEquals("ABC 3.0;DEF open;", tickets());
+        assertEquals(0, ticketJournal.getPendingCount());
+        ticketJournal.close();
+    }
+
+    @Test
+    public void writesLeftByTheLastRunAreReplayedOnce() throws Exception {
+        // Given: writes journaled while the database was unreachable
+        DataBaseConfig unreachableDataBase = mock(DataBaseConfig.class);
+        when(unreachableDataBase.getConnection()).thenThrow(new SQLException("Connection refused"));
+        TicketJournal offlineJournal = new TicketJournal(unreachableDataBase, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+        offlineJournal.appendSave(ticket(1, "ABC", inTime, null));
+        offlineJournal.appendSave(ticket(2, "DEF", inTime, null));
+        offlineJournal.close();
+
+        // When: the journal is opened again with the database back
+        TicketJournal ticketJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        assertEquals(2, ticketJournal.getRecoveredOpenTickets().size());
+        assertEquals("DEF", ticketJournal.getRecoveredOpenTickets().get(1).getVehicleRegNumber());
+        ticketJournal.flush();
+        ticketJournal.close();
+        // and after a crash between the replay and its checkpoint, the writes are replayed again
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.seek(8);
+            file.writeLong(0);
+        }
+        TicketJournal reopenedJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        reopenedJournal.flush();
+        reopenedJournal.close();
+
+        // Then: each ticket was saved once
+        assertEquals("ABC open;DEF open;", tickets());
+    }
+
+    @Test
+    public void tornRecordEndsTheRecovery() throws Exception {
+        // Given: a journal whose second record was only partly written
+        DataBaseConfig unreachableDataBase = mock(DataBaseConfig.class);
+        when(unreachableDataBase.getConnection()).thenThrow(new SQLException("Connection refused"));
+        TicketJournal offlineJournal = new TicketJournal(unreachableDataBase, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+        offlineJournal.appendSave(ticket(1, "ABC", inTime, null));
+        offlineJournal.appendSave(ticket(2, "DEF", inTime, null));
+        offlineJournal.close();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.seek(2 * 64 + 40);
+            file.write('X');
+        }
+
+        // When
+        TicketJournal ticketJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        ticketJournal.flush();
+        ticketJournal.close();
+
+        // Then
+        assertEquals("ABC open;", tickets());
+    }
+
+    @Test
+    public void cancelledWritesAreUndoneByTheReplay() throws Exception {
+        // Given
+        TicketJournal ticketJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+
+        // When: an entry rolled back, then an exit rolled back
+        ticketJournal.appendSave(ticket(1, "ABC", inTime, null));
+        ticketJournal.appendSaveCancel(ticket(1, "ABC", inTime, null));
+        ticketJournal.appendSave(ticket(2, "DEF", inTime, null));
+        ticketJournal.appendUpdate(ticket(2, "DEF", inTime, inTime + 2 * HOUR));
+        ticketJournal.appendUpdateCancel(ticket(2, "DEF", inTime, inTime + 2 * HOUR));
+        ticketJournal.flush();
+        ticketJournal.close();
+
+        // Then: no phantom ticket, and the spots follow the tickets
+        assertEquals("DEF open;", tickets());
+        assertTrue(isAvailable(1));
+        assertFalse(isAvailable(2));
+    }
+
+    @Test
+    public void recoveryLeavesCancelledEntriesClosed() throws Exception {
+        // Given
+        DataBaseConfig unreachableDataBase = mock(DataBaseConfig.class);
+        when(unreachableDataBase.getConnection()).thenThrow(new SQLException("Connection refused"));
+        TicketJournal offlineJournal = new TicketJournal(unreachableDataBase, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+        offlineJournal.appendSave(ticket(1, "ABC", inTime, null));
+        offlineJournal.appendSaveCancel(ticket(1, "ABC", inTime, null));
+        offlineJournal.appendSave(ticket(2, "DEF", inTime, null));
+        offlineJournal.appendUpdate(ticket(2, "DEF", inTime, inTime + 2 * HOUR));
+        offlineJournal.appendUpdateCancel(ticket(2, "DEF", inTime, inTime + 2 * HOUR));
+        assertFalse(offlineJournal.getPendingSpotAvailability().get(2));
+        assertTrue(offlineJournal.getPendingSpotAvailability().get(1));
+        offlineJournal.close();
+
+        // When
+        TicketJournal ticketJournal = new TicketJournal(unreachableDataBase, journalFile, 16, 10);
+
+        // Then
+        assertEquals(1, ticketJournal.getRecoveredOpenTickets().size());
+        assertEquals("DEF", ticketJournal.getRecoveredOpenTickets().get(0).getVehicleRegNumber());
+        assertNull(ticketJournal.getRecoveredOpenTickets().get(0).getOutTime());
+        ticketJournal.close();
+    }
+
+    @Test
+    public void refusedRecordIsMovedToTheDeadLetterFile() throws Exception {
+        // Given: a ticket on a spot the parking table does not have, between two good ones
+        TicketJournal ticketJournal = new TicketJournal(dataBaseConfig, journalFile, 16, 10);
+        long inTime = new Date().getTime() - 2 * HOUR;
+
+        // When
+        ticketJournal.appendSave(ticket(1, "ABC", inTime, null));
+        ticketJournal.appendSave(ticket(99, "BAD", inTime, null));
+        ticketJournal.appendSave(ticket(2, "DEF", inTime, null));
+        ticketJournal.flush();
+        ticketJournal.close();
+
+        // Then: the replay went on past it
+        assertEquals("ABC open;DEF open;", tickets());
+        assertEquals(64, new File(journalFile.getPath() + ".dead").length());
+    }
+
+    @Test
+    public void gatesDoNotWaitForTheDatabase() throws Exception {
+        // Given: a gate in journal mode whose database link goes down
+        AtomicBoolean databaseDown = new AtomicBoolean();
+        EmbeddedDataBaseConfig flakyDataBase = new EmbeddedDataBaseConfig("journal") {
+            @Override
+            public Connection getConnection() throws ClassNotFoundException, SQLException {
+                if (databaseDown.get()) {
+                    throw new SQLException("Connection refused");
+                }
+                return super.getConnection();
+            }
+        };
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = flakyDataBase;
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = flakyDataBase;
+        ticketDAO.enableJournal(journalFile, 16, 10);
+        parkingSpotDAO.setTicketJournal(ticketDAO.getJournal());
+        parkingSpotDAO.getAvailabilityIndex();
+        ParkingService parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.dataBaseConfig = flakyDataBase;
+        databaseDown.set(true);
+
+        // When: a vehicle enters, and another entry is rolled back
+        Ticket ticket = parkingService.processIncomingVehicle(ParkingType.CAR, "ABC");
+        Ticket rolledBack = ticket(2, "DEF", new Date().getTime(), null);
+        flakyDataBase.beginTransaction();
+        assertTrue(ticketDAO.saveTicket(rolledBack));
+        flakyDataBase.rollbackTransaction();
+        databaseDown.set(false);
+        ticketDAO.flush();
+        ticketDAO.disableJournal();
+
+        // Then
+        assertEquals(1, ticket.getParkingSpot().getId());
+        assertEquals("ABC open;", tickets());
+        assertFalse(isAvailable(1));
+        assertTrue(isAvailable(2));
+    }
+}
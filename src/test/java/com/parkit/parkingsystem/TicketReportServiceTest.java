@@ -0,0 +1,74 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.config.TicketTableFixture;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.service.TicketArchiver;
+import com.parkit.parkingsystem.service.TicketReportService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TicketReportServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+
+    private TicketTableFixture tickets;
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private TicketReportService ticketReportService;
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        tickets = new TicketTableFixture("report");
+        dataBaseConfig = tickets.getDataBaseConfig();
+        // small fetches and one range per day, so the report spans several ranges
+        ticketReportService = new TicketReportService(2, 3);
+        ticketReportService.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Test
+    public void reportAddsUpTheTicketsOfEachDayAndType() throws Exception {
+        // Given: three days, an archived car visit on the first one, a car parked since the day before and still parked,
+        // two overlapping car visits on the second day, a bike on the third, and a car leaving after the report
+        long start = (new Date().getTime() / DAY - 100) * DAY;
+        tickets.insertTicket(1, "CAR1", 3.0, start + 8 * HOUR, start + 10 * HOUR);
+        tickets.insertTicket(2, "CAR2", 0.0, start - 5 * HOUR, null);
+        tickets.insertTicket(1, "CAR3", 1.5, start + DAY + 9 * HOUR, start + DAY + 11 * HOUR);
+        tickets.insertTicket(3, "CAR4", 4.5, start + DAY + 10 * HOUR, start + DAY + 14 * HOUR);
+        tickets.insertTicket(4, "BIKE1", 1.0, start + 2 * DAY + 12 * HOUR, start + 2 * DAY + 13 * HOUR);
+        tickets.insertTicket(1, "CAR5", 6.0, start + 2 * DAY + 20 * HOUR, start + 3 * DAY + 2 * HOUR);
+        TicketArchiver ticketArchiver = new TicketArchiver(10);
+        ticketArchiver.dataBaseConfig = dataBaseConfig;
+        ticketArchiver.archiveClosedBefore(new Date(start + DAY));
+
+        // When
+        TicketReportService.Report report = ticketReportService.report(new Date(start), new Date(start + 3 * DAY));
+
+        // Then: revenue is counted on the day of the exit, occupancy counts every vehicle parked during the hour
+        assertArrayEquals(new double[]{3.0, 6.0, 1.0}, report.getRevenuePerDay());
+        assertEquals(9.0, report.getRevenue(ParkingType.CAR));
+        assertEquals(1.0, report.getRevenue(ParkingType.BIKE));
+        assertEquals(3, report.getTicketCount(ParkingType.CAR));
+        assertEquals(8 * HOUR / 3, report.getAverageStayMillis(ParkingType.CAR));
+        assertEquals(HOUR, report.getAverageStayMillis(ParkingType.BIKE));
+        assertEquals(3, report.getPeakOccupancy(ParkingType.CAR));
+        assertEquals(new Date(start + DAY + 10 * HOUR), report.getPeakOccupancyHour(ParkingType.CAR));
+        assertEquals(1, report.getPeakOccupancy(ParkingType.BIKE));
+    }
+
+    @Test
+    public void reportOfAPeriodWithoutTicketsIsEmpty() throws Exception {
+        // When
+        TicketReportService.Report report = ticketReportService.report(new Date(0), new Date(DAY));
+
+        // Then
+        assertEquals(24, report.getHours());
+        assertEquals(0.0, report.getRevenue(ParkingType.CAR));
+        assertEquals(0, report.getAverageStayMillis(ParkingType.CAR));
+        assertEquals(0, report.getPeakOccupancy(ParkingType.CAR));
+    }
+}
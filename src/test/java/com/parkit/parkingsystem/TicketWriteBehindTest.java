@@ -0,0 +1,192 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.config.DataBaseConfig;
+import com.parkit.parkingsystem.constants.DBConstants;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.TicketWriteBehind;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TicketWriteBehindTest {
+
+    @Mock
+    private DataBaseConfig dataBaseConfig;
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement saveStatement;
+    @Mock
+    private PreparedStatement updateStatement;
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setUpPerTest() throws Exception {
+        when(dataBaseConfig.getConnection()).thenReturn(connection);
+        lenient().when(saveStatement.executeBatch()).then(invocation -> executed.add("save") ? new int[0] : null);
+        lenient().when(updateStatement.executeBatch()).then(invocation -> executed.add("update") ? new int[0] : null);
+        lenient().doAnswer(invocation -> executed.add("commit")).when(connection).commit();
+        lenient().when(connection.prepareStatement(DBConstants.SAVE_TICKET)).thenReturn(saveStatement);
+        lenient().when(connection.prepareStatement(DBConstants.UPDATE_OPEN_TICKET)).thenReturn(updateStatement);
+    }
+
+    private Ticket ticket(String vehicleRegNumber, boolean exited) {
+        Ticket ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, ParkingType.CAR, false));
+        ticket.setVehicleRegNumber(vehicleRegNumber);
+        ticket.setInTime(new Date(System.currentTimeMillis() - (60 * 60 * 1000)));
+        if (exited) {
+            ticket.setOutTime(new Date());
+            ticket.setPrice(1.5);
+        }
+        return ticket;
+    }
+
+    @Test
+    public void queuedWritesAreGroupedInOrderedBatches() throws Exception {
+        // Given: a batch large enough for every write and a long flush window
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 6, 5000, 100);
+
+        // When: three entries, two exits and one more entry are queued
+        writeBehind.enqueueSave(ticket("A", false));
+        writeBehind.enqueueSave(ticket("B", false));
+        writeBehind.enqueueSave(ticket("C", false));
+        writeBehind.enqueueUpdate(ticket("A", true));
+        writeBehind.enqueueUpdate(ticket("B", true));
+        writeBehind.enqueueSave(ticket("D", false));
+        writeBehind.flush();
+
+        // Then: they were written as three batches, in queue order, in one transaction
+        assertEquals(Arrays.asList("save", "update", "save", "commit"), executed);
+        verify(saveStatement, times(4)).addBatch();
+        verify(updateStatement, times(2)).addBatch();
+        verify(dataBaseConfig, times(1)).getConnection();
+        assertEquals(0, writeBehind.getPendingCount());
+
+        writeBehind.close();
+    }
+
+    @Test
+    public void flushDoesNotWaitForTheBatchWindow() throws Exception {
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 100, 60000, 100);
+
+        long start = System.currentTimeMillis();
+        writeBehind.enqueueSave(ticket("A", false));
+        writeBehind.flush();
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        verify(saveStatement).executeBatch();
+        writeBehind.close();
+    }
+
+    @Test
+    public void closedWriteBehindRejectsWrites() throws Exception {
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 10, 10, 100);
+        writeBehind.enqueueSave(ticket("A", false));
+
+        writeBehind.close();
+
+        verify(saveStatement).executeBatch();
+        assertThrows(IllegalStateException.class, () -> writeBehind.enqueueSave(ticket("B", false)));
+    }
+
+    @Test
+    public void failedWritesAreRetriedUntilTheDatabaseTakesThem() throws Exception {
+        // Given: a database failing the batch three times and the single write once
+        SQLException outage = new SQLException("Connection lost");
+        doThrow(outage).doThrow(outage).doThrow(outage).doAnswer(invocation -> executed.add("save") ? new int[0] : null)
+                .when(saveStatement).executeBatch();
+        when(saveStatement.executeUpdate()).thenThrow(outage);
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 10, 10, 100);
+
+        // When
+        writeBehind.enqueueSave(ticket("A", false));
+        writeBehind.flush();
+
+        // Then: the write was kept and went through once the database was back
+        assertEquals(Arrays.asList("save", "commit"), executed);
+        writeBehind.close();
+    }
+
+    @Test
+    public void refusedWriteIsMovedToTheDeadLetterFile() throws Exception {
+        // Given: a reachable database refusing every batch and the first single write
+        File deadLetterFile = Files.createTempFile("ticket-write-behind", ".dead").toFile();
+        deadLetterFile.deleteOnExit();
+        SQLException refusal = new SQLException("Referential integrity constraint violation");
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(saveStatement.executeBatch()).thenThrow(refusal);
+        when(saveStatement.executeUpdate()).thenThrow(refusal, refusal, refusal, refusal, refusal).thenReturn(1);
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 10, 10, 100, deadLetterFile);
+
+        // When
+        writeBehind.enqueueSave(ticket("A", false));
+        writeBehind.enqueueSave(ticket("B", false));
+        writeBehind.flush();
+
+        // Then: the refused write went to the dead-letter file and the one after it to the database
+        List<String> deadLetters = Files.readAllLines(deadLetterFile.toPath());
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).startsWith("SAVE,0,1,A,"));
+        verify(saveStatement, times(6)).executeUpdate();
+        writeBehind.close();
+    }
+
+    @Test
+    public void rolledBackWriteStillQueuedIsNeverWritten() throws Exception {
+        // Given: a long batch window, so the writes stay queued
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 10, 60000, 100);
+
+        // When: the unit of work of the first entry rolls back before the batch is written
+        Runnable cancel = writeBehind.enqueueSave(ticket("A", false));
+        writeBehind.enqueueSave(ticket("B", false));
+        cancel.run();
+        writeBehind.flush();
+
+        // Then
+        verify(saveStatement, times(1)).addBatch();
+        verify(saveStatement).setString(2, "B");
+        verify(saveStatement, never()).setString(2, "A");
+        writeBehind.close();
+    }
+
+    @Test
+    public void rolledBackWriteAlreadyWrittenIsUndone() throws Exception {
+        // Given: an exit already written
+        PreparedStatement reopenStatement = mock(PreparedStatement.class);
+        when(reopenStatement.executeBatch()).then(invocation -> executed.add("reopen") ? new int[0] : null);
+        when(connection.prepareStatement(DBConstants.REOPEN_JOURNALED_TICKET)).thenReturn(reopenStatement);
+        TicketWriteBehind writeBehind = new TicketWriteBehind(dataBaseConfig, 10, 10, 100);
+        Runnable cancel = writeBehind.enqueueUpdate(ticket("A", true));
+        writeBehind.flush();
+
+        // When: its unit of work rolls back
+        cancel.run();
+        writeBehind.flush();
+
+        // Then: the ticket is reopened by a further write
+        assertEquals(Arrays.asList("update", "commit", "reopen", "commit"), executed);
+        verify(reopenStatement).setString(1, "A");
+        writeBehind.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.parkit.parkingsystem;
+
+import com.parkit.parkingsystem.dao.VisitCounterCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VisitCounterCacheTest {
+
+    @Test
+    public void completedVisitsAreAddedToCachedCounts() {
+        VisitCounterCache visitCounterCache = new VisitCounterCache(10);
+        visitCounterCache.put("ABC", 2);
+
+        visitCounterCache.add("ABC", 1);
+        visitCounterCache.add("DEF", 1);
+
+        assertEquals(3, visitCounterCache.get("ABC"));
+        // not cached: the next lookup loads it from the database, the new visit included
+        assertEquals(-1, visitCounterCache.get("DEF"));
+        assertEquals(1, visitCounterCache.getHitCount());
+        assertEquals(1, visitCounterCache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedVehicleIsEvicted() {
+        // Given: a full cache where ABC was just looked up
+        VisitCounterCache visitCounterCache = new VisitCounterCache(2);
+        visitCounterCache.put("ABC", 1);
+        visitCounterCache.put("DEF", 1);
+        visitCounterCache.get("ABC");
+
+        // When
+        visitCounterCache.put("GHI", 1);
+
+        // Then
+        assertEquals(2, visitCounterCache.size());
+        assertEquals(1, visitCounterCache.get("ABC"));
+        assertEquals(-1, visitCounterCache.get("DEF"));
+    }
+
+    @Test
+    public void countReadWhileAVisitIsAddedIsNotCached() {
+        // Given: a count being read from the database
+        VisitCounterCache visitCounterCache = new VisitCounterCache(10);
+        long version = visitCounterCache.getVersion();
+
+        // When: the vehicle leaves before the count is put
+        visitCounterCache.add("ABC", 1);
+
+        // Then: the count may miss that visit, the next lookup reads it again
+        assertFalse(visitCounterCache.put("ABC", 2, version));
+        assertEquals(-1, visitCounterCache.get("ABC"));
+        assertTrue(visitCounterCache.put("ABC", 3, visitCounterCache.getVersion()));
+        assertEquals(3, visitCounterCache.get("ABC"));
+    }
+}
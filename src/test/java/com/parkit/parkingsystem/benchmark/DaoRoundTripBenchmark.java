@@ -0,0 +1,95 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Cost of a single DAO call going to the embedded database, with the DAO caches out of the way
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DaoRoundTripBenchmark {
+
+    private static final String VEHICLE_REG_NUMBER = "BENCH";
+
+    private EmbeddedDataBaseConfig dataBaseConfig;
+    private ParkingSpotDAO parkingSpotDAO;
+    private TicketDAO ticketDAO;
+    private ParkingSpot parkingSpot;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig("dao");
+        dataBaseConfig.createSchema(3, 2);
+        parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        parkingSpot = new ParkingSpot(1, ParkingType.CAR, false);
+
+        // a few completed visits and the current one
+        Date inTime = new Date(System.currentTimeMillis() - 60 * 60 * 1000);
+        for (int i = 0; i < 5; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setParkingSpot(parkingSpot);
+            ticket.setVehicleRegNumber(VEHICLE_REG_NUMBER);
+            ticket.setInTime(inTime);
+            ticket.setOutTime((i < 4) ? new Date() : null);
+            ticketDAO.saveTicket(ticket);
+        }
+    }
+
+    @Benchmark
+    public boolean pooledConnection() throws Exception {
+        Connection con = dataBaseConfig.getConnection();
+        try {
+            ResultSet rs = con.createStatement().executeQuery("select 1");
+            return rs.next();
+        } finally {
+            dataBaseConfig.closeConnection(con);
+        }
+    }
+
+    @Benchmark
+    public Ticket getTicket() {
+        ticketDAO.clearCache();
+        return ticketDAO.getTicket(VEHICLE_REG_NUMBER);
+    }
+
+    @Benchmark
+    public int getNbTicket() {
+        ticketDAO.clearCache();
+        return ticketDAO.getNbTicket(VEHICLE_REG_NUMBER);
+    }
+
+    // the spot is taken then released, two updates of the parking table
+    @Benchmark
+    public boolean updateParking() {
+        parkingSpot.setAvailable(false);
+        boolean claimed = parkingSpotDAO.updateParking(parkingSpot);
+        parkingSpot.setAvailable(true);
+        return parkingSpotDAO.updateParking(parkingSpot) && claimed;
+    }
+}
@@ -0,0 +1,82 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.FareCalculatorService;
+import com.parkit.parkingsystem.service.TariffEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FareCalculatorBenchmark {
+
+    private FareCalculatorService fareCalculatorService;
+
+    // a fixed offset, and a zone with daylight saving changes
+    @Param({"UTC", "Europe/Paris"})
+    private String zone;
+
+    @Param({"CAR", "BIKE"})
+    private ParkingType parkingType;
+
+    // below the free half hour, and a regular stay
+    @Param({"20", "135"})
+    private int durationMinutes;
+
+    private Ticket ticket;
+
+    @Setup
+    public void setUp() throws IOException {
+        File tariffFile = Files.createTempFile("tariff", ".properties").toFile();
+        tariffFile.deleteOnExit();
+        try (Writer writer = new FileWriter(tariffFile)) {
+            writer.write("CAR.rate=150\nBIKE.rate=100\nfreeMinutes=30\ndiscountPercent=95\nzone=" + zone + "\n");
+        }
+        fareCalculatorService = new FareCalculatorService(new TariffEngine(tariffFile));
+        ticket = new Ticket();
+        ticket.setParkingSpot(new ParkingSpot(1, parkingType, false));
+        ticket.setInTime(new Date(System.currentTimeMillis() - durationMinutes * 60 * 1000L));
+        ticket.setOutTime(new Date());
+    }
+
+    @Benchmark
+    public double calculateFare() {
+        fareCalculatorService.calculateFare(ticket);
+        return ticket.getPrice();
+    }
+
+    @Benchmark
+    public double calculateFareWithDiscount() {
+        fareCalculatorService.calculateFare(ticket, true);
+        return ticket.getPrice();
+    }
+
+    // the primitive path, without the ticket
+    @Benchmark
+    public long calculateFareCents() {
+        return fareCalculatorService.calculateFareCents(ticket.getInTime().getTime(), ticket.getOutTime().getTime(), parkingType, false);
+    }
+}
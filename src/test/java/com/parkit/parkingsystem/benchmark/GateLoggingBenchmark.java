@@ -0,0 +1,68 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Latency of a vehicle going through the gates with logging off, at the default INFO level, and at DEBUG where
+// every connection and statement is logged. Events go to the log file only, as on a production gate.
+// The loggers are asynchronous by default, the synchronous ones are measured by adding
+// -jvmArgsAppend -DLog4jContextSelector=org.apache.logging.log4j.core.selector.ClassLoaderContextSelector
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class GateLoggingBenchmark {
+
+    private static final String VEHICLE_REG_NUMBER = "LOGBENCH";
+
+    @Param({"OFF", "INFO", "DEBUG"})
+    public String logLevel;
+
+    private ParkingService parkingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LoggerContext loggerContext = (LoggerContext) LogManager.getContext(false);
+        loggerContext.getConfiguration().getRootLogger().removeAppender("ConsoleAppender");
+        loggerContext.updateLoggers();
+        Configurator.setRootLevel(org.apache.logging.log4j.Level.valueOf(logLevel));
+
+        EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("logging");
+        dataBaseConfig.createSchema(3, 2);
+        ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+        parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+        TicketDAO ticketDAO = new TicketDAO();
+        ticketDAO.dataBaseConfig = dataBaseConfig;
+        parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+        parkingService.dataBaseConfig = dataBaseConfig;
+    }
+
+    @Benchmark
+    public Ticket entryAndExit() throws Exception {
+        parkingService.processIncomingVehicle(ParkingType.CAR, VEHICLE_REG_NUMBER);
+        return parkingService.processExitingVehicle(VEHICLE_REG_NUMBER);
+    }
+}
@@ -0,0 +1,87 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.config.EmbeddedDataBaseConfig;
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.ParkingSpotDAO;
+import com.parkit.parkingsystem.dao.TicketDAO;
+import com.parkit.parkingsystem.model.Ticket;
+import com.parkit.parkingsystem.service.ParkingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Latency of the entry and exit workflows against the embedded database. Each benchmark undoes its
+// workflow outside of the measurement, so the parking never fills up.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParkingWorkflowBenchmark {
+
+    private static final String VEHICLE_REG_NUMBER = "BENCH";
+
+    // shared by the benchmarks and their helper states. Benchmark scope, as thread scoped states injected
+    // into fixture methods get their own instance, with a parking index of their own.
+    @State(Scope.Benchmark)
+    public static class Parking {
+        private TicketDAO ticketDAO;
+        private ParkingService parkingService;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            EmbeddedDataBaseConfig dataBaseConfig = new EmbeddedDataBaseConfig("workflow");
+            dataBaseConfig.createSchema(3, 2);
+            ParkingSpotDAO parkingSpotDAO = new ParkingSpotDAO();
+            parkingSpotDAO.dataBaseConfig = dataBaseConfig;
+            ticketDAO = new TicketDAO();
+            ticketDAO.dataBaseConfig = dataBaseConfig;
+            parkingService = new ParkingService(parkingSpotDAO, ticketDAO);
+            parkingService.dataBaseConfig = dataBaseConfig;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParkedVehicle {
+        @Setup(Level.Invocation)
+        public void park(Parking parking) throws Exception {
+            parking.parkingService.processIncomingVehicle(ParkingType.CAR, VEHICLE_REG_NUMBER);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LeavingVehicle {
+        @TearDown(Level.Invocation)
+        public void leave(Parking parking) throws Exception {
+            parking.parkingService.processExitingVehicle(VEHICLE_REG_NUMBER);
+        }
+    }
+
+    @Benchmark
+    public Ticket entry(Parking parking, LeavingVehicle leavingVehicle) throws Exception {
+        return parking.parkingService.processIncomingVehicle(ParkingType.CAR, VEHICLE_REG_NUMBER);
+    }
+
+    @Benchmark
+    public Ticket exit(Parking parking, ParkedVehicle parkedVehicle) throws Exception {
+        return parking.parkingService.processExitingVehicle(VEHICLE_REG_NUMBER);
+    }
+
+    // the same exit once the caches of the ticket DAO have been dropped, as after a restart
+    @Benchmark
+    public Ticket exitUncached(Parking parking, ParkedVehicle parkedVehicle) throws Exception {
+        parking.ticketDAO.clearCache();
+        return parking.parkingService.processExitingVehicle(VEHICLE_REG_NUMBER);
+    }
+}
@@ -0,0 +1,63 @@
+package com.parkit.parkingsystem.benchmark;
+
+import com.parkit.parkingsystem.constants.ParkingType;
+import com.parkit.parkingsystem.dao.SpotAllocationStrategy;
+import com.parkit.parkingsystem.dao.SpotAvailabilityIndex;
+import com.parkit.parkingsystem.model.ParkingSpot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Choosing and claiming a spot, then freeing it, in a garage of 40000 car spots on 8 levels that is 95% full,
+// the taken spots being scattered at random
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SpotAllocationBenchmark {
+
+    private static final int LEVELS = 8;
+    private static final int SPOTS_PER_LEVEL = 5000;
+
+    @Param({"lowest", "spread", "nearest:22500"})
+    private String strategyName;
+
+    private SpotAllocationStrategy strategy;
+    private SpotAvailabilityIndex availabilityIndex;
+
+    @Setup
+    public void setUp() {
+        strategy = SpotAllocationStrategy.forName(strategyName, null);
+        Random random = new Random(42);
+        List<ParkingSpot> parkingSpots = new ArrayList<>();
+        for (int parkingNumber = 1; parkingNumber <= LEVELS * SPOTS_PER_LEVEL; parkingNumber++) {
+            ParkingSpot parkingSpot = new ParkingSpot(parkingNumber, ParkingType.CAR, random.nextInt(20) == 0);
+            parkingSpot.setLevel((parkingNumber - 1) / SPOTS_PER_LEVEL);
+            parkingSpots.add(parkingSpot);
+        }
+        availabilityIndex = new SpotAvailabilityIndex(parkingSpots);
+    }
+
+    @Benchmark
+    public int allocate() {
+        int parkingNumber = strategy.selectSpot(availabilityIndex, ParkingType.CAR, null);
+        availabilityIndex.claim(parkingNumber);
+        availabilityIndex.setAvailable(parkingNumber, true);
+        return parkingNumber;
+    }
+}
@@ -0,0 +1,58 @@
+package com.parkit.parkingsystem.config;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+// In-memory embedded database, so the unit tests and the benchmarks run without a MySQL server to set up
+public class EmbeddedDataBaseConfig extends DataBaseConfig {
+
+    private final String name;
+    private final int garageId;
+
+    public EmbeddedDataBaseConfig(String name) {
+        this(name, DEFAULT_GARAGE_ID);
+    }
+
+    public EmbeddedDataBaseConfig(String name, int garageId) {
+        this.name = name;
+        this.garageId = garageId;
+    }
+
+    @Override
+    public int getGarageId() {
+        return garageId;
+    }
+
+    @Override
+    protected boolean isEmbedded() {
+        return true;
+    }
+
+    @Override
+    protected String getUrl() {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    }
+
+    // the tables of the embedded storage, emptied, with the given number of spots of each type
+    public void createSchema(int carSpots, int bikeSpots) throws Exception {
+        Connection con = null;
+        try {
+            con = getConnection();
+            try (Statement statement = con.createStatement()) {
+                statement.execute("drop table if exists ticket_hourly_summary");
+                statement.execute("drop table if exists ticket_summary_checkpoint");
+                statement.execute("drop table if exists ticket_archive");
+                statement.execute("drop table if exists ticket");
+                statement.execute("drop table if exists parking");
+                statement.execute("runscript from '" + EMBEDDED_SCHEMA + "'");
+                statement.execute("delete from parking");
+                for (int i = 1; i <= carSpots + bikeSpots; i++) {
+                    statement.execute("insert into parking(PARKING_NUMBER,AVAILABLE,TYPE) values(" + i + ",true,'"
+                            + ((i <= carSpots) ? "CAR" : "BIKE") + "')");
+                }
+            }
+        } finally {
+            closeConnection(con);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.parkit.parkingsystem.config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+// An embedded database created afresh for a test, with 3 car and 2 bike spots, and the ticket rows it writes and
+// reads behind the DAOs and services under test
+public class TicketTableFixture {
+
+    private final EmbeddedDataBaseConfig dataBaseConfig;
+
+    public TicketTableFixture(String name) throws Exception {
+        dataBaseConfig = new EmbeddedDataBaseConfig(name);
+        dataBaseConfig.createSchema(3, 2);
+    }
+
+    public EmbeddedDataBaseConfig getDataBaseConfig() {
+        return dataBaseConfig;
+    }
+
+    // a ticket still open when no out-time is given
+    public void insertTicket(int parkingNumber, String vehicleRegNumber, double price, long inTime, Long outTime) throws Exception {
+        try (Connection con = dataBaseConfig.getConnection();
+             PreparedStatement ps = con.prepareStatement("insert into ticket(PARKING_NUMBER, VEHICLE_REG_NUMBER, PRICE, IN_TIME, OUT_TIME) values(?,?,?,?,?)")) {
+            ps.setInt(1, parkingNumber);
+            ps.setString(2, vehicleRegNumber);
+            ps.setDouble(3, price);
+            ps.setTimestamp(4, new Timestamp(inTime));
+            ps.setTimestamp(5, (outTime == null) ? null : new Timestamp(outTime));
+            ps.executeUpdate();
+        }
+    }
+
+    public int count(String table) throws Exception {
+        try (Connection con = dataBaseConfig.getConnection();
+             Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("select count(*) from " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    public double priceOf(int ticketId) throws Exception {
+        try (Connection con = dataBaseConfig.getConnection();
+             PreparedStatement ps = con.prepareStatement("select PRICE from ticket where ID = ?")) {
+            ps.setInt(1, ticketId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getDouble(1);
+            }
+        }
+    }
+}
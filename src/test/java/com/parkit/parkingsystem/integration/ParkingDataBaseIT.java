@@ -51,6 +51,9 @@ public class ParkingDataBaseIT {
 
         dataBasePrepareService = new DataBasePrepareService();
         dataBasePrepareService.clearDataBaseEntries();
+        // the entries were reset behind the DAOs, so their in-memory state has to catch up
+        parkingSpotDAO.reconcile();
+        ticketDAO.clearCache();
     }
 
     @AfterAll
@@ -123,4 +126,41 @@ public class ParkingDataBaseIT {
         // for one hour: 1.5 without discount and 1.425 with the discount of 5%
         assertEquals(1.425, secondTicketFinal.getPrice(), 0.1);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void exitingAgainDoesNotCountAnotherVisit() {
+        // Given: a car that has left already
+        ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+        parkingService.processIncomingVehicle();
+        parkingService.processExitingVehicle();
+
+        // When: its plate is read again at the exit
+        parkingService.processExitingVehicle();
+
+        // Then
+        assertEquals(1, ticketDAO.getNbTicket("b"));
+    }
+
+    @Test
+    public void visitStillQueuedIsCountedBeforeTheCountIsCached() throws Exception {
+        // Given: ticket writes held in the write-behind queue for a long batch window
+        ticketDAO.enableWriteBehind(100, 60000, 100);
+        try {
+            ParkingService parkingService = new ParkingService(inputReaderUtil, parkingSpotDAO, ticketDAO);
+            parkingService.processIncomingVehicle();
+            parkingService.processExitingVehicle();
+            ticketDAO.clearCache();
+
+            // When: the vehicle is counted while its exit is still queued
+            int countWithoutWaiting = ticketDAO.getNbTicketWithoutWaiting("b");
+
+            // Then: the short count is not cached, and a count waiting for the queue includes the exit
+            assertEquals(0, countWithoutWaiting);
+            assertEquals(-1, ticketDAO.getVisitCounterCache().get("b"));
+            assertEquals(1, ticketDAO.getNbTicket("b"));
+            assertEquals(1, ticketDAO.getVisitCounterCache().get("b"));
+        } finally {
+            ticketDAO.disableWriteBehind();
+        }
+    }
+}
@@ -18,6 +18,9 @@ public class DataBasePrepareService {
 
             //clear ticket entries;
             connection.prepareStatement("truncate table ticket").execute();
+            connection.prepareStatement("truncate table ticket_archive").execute();
+            connection.prepareStatement("truncate table ticket_hourly_summary").execute();
+            connection.prepareStatement("truncate table ticket_summary_checkpoint").execute();
 
         }catch(Exception e){
             e.printStackTrace();